@@ -11,16 +11,31 @@ import java.util.List;
 public class Puzzle1 {
   public static void main(String[] args) throws Exception {
     try (Reader r = new InputStreamReader(Puzzle1.class.getResourceAsStream("puzzle1.txt"))) {
-      List<Long> numbers = CharStreams.readLines(r).stream().map(Long::valueOf).toList();
-      long part1 = numbers.stream().mapToLong(n -> n / 3 - 2).sum();
-      System.out.printf("Part 1 sum is %d\n", part1);
-      long part2 = 0;
-      for (long n : numbers) {
-        for (long m = n; (m = m / 3 - 2) > 0; ) {
-          part2 += m;
-        }
+      List<String> lines = CharStreams.readLines(r);
+      long[] masses = lines.stream().mapToLong(Long::parseLong).toArray();
+      System.out.printf("Part 1 sum is %d\n", simpleFuel(masses));
+      System.out.printf("Part 2 sum is %d\n", totalFuel(masses));
+    }
+  }
+
+  // Part 1 is a single pass over the array. In Part 2, each module's fuel shrinks by a factor of
+  // about 3 each time round the inner loop, so that loop runs only O(log mass) times.
+
+  static long simpleFuel(long[] masses) {
+    long sum = 0;
+    for (long mass : masses) {
+      sum += mass / 3 - 2;
+    }
+    return sum;
+  }
+
+  static long totalFuel(long[] masses) {
+    long sum = 0;
+    for (long mass : masses) {
+      for (long m = mass; (m = m / 3 - 2) > 0; ) {
+        sum += m;
       }
-      System.out.printf("Part 2 sum is %d\n", part2);
     }
+    return sum;
   }
 }
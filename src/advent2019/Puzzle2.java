@@ -1,16 +1,13 @@
 package advent2019;
 
-import static com.google.common.collect.ImmutableList.toImmutableList;
-import static java.lang.Math.addExact;
-import static java.lang.Math.multiplyExact;
-
-import com.google.common.base.Splitter;
-import com.google.common.collect.ImmutableList;
+import advent2019.intcode.Intcode;
+import advent2019.intcode.Intcode.IntcodeException;
+import advent2019.intcode.Intcode.Snapshot;
+import adventlib.ParallelSearch;
 import com.google.common.io.CharStreams;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.OptionalInt;
 
 /**
  * @author Éamonn McManus
@@ -18,41 +15,55 @@ import java.util.List;
 public class Puzzle2 {
   public static void main(String[] args) throws Exception {
     try (Reader r = new InputStreamReader(Puzzle2.class.getResourceAsStream("puzzle2.txt"))) {
-      String line = CharStreams.toString(r).trim();
-      ImmutableList<Integer> originalMemory =
-          Splitter.on(',').splitToStream(line).map(Integer::valueOf).collect(toImmutableList());
+      long[] program = Intcode.parse(CharStreams.toString(r));
+      Intcode vm = new Intcode(program);
+      Snapshot initial = vm.snapshot();
 
       // Part 1
-      System.out.printf("Part 1 result is %d\n", run(originalMemory, 12, 2));
+      System.out.printf("Part 1 result is %d\n", run(vm, initial, 12, 2));
 
       // Part 2
-      outer:
-      for (int i = 0; i < 100; i++) {
-        for (int j = 0; j < 100; j++) {
-          if (run(originalMemory, i, j) == 19690720) {
-            System.out.printf("Part 2 result is %d,%d => %d\n", i, j, i * 100 + j);
-            break outer;
-          }
-        }
+      OptionalInt part2 = search(program, 19690720);
+      if (part2.isPresent()) {
+        int nounVerb = part2.getAsInt();
+        System.out.printf(
+            "Part 2 result is %d,%d => %d\n", nounVerb / 100, nounVerb % 100, nounVerb);
+      } else {
+        System.out.println("Part 2 has no result");
       }
     }
   }
 
-  private static int run(ImmutableList<Integer> originalMemory, int input1, int input2) {
-    List<Integer> memory = new ArrayList<>(originalMemory);
-    memory.set(1, input1);
-    memory.set(2, input2);
-    for (int pc = 0; memory.get(pc) != 99; pc += 4) {
-      int lhs = memory.get(memory.get(pc + 1));
-      int rhs = memory.get(memory.get(pc + 2));
-      int result =
-          switch (memory.get(pc)) {
-            case 1 -> addExact(lhs, rhs);
-            case 2 -> multiplyExact(lhs, rhs);
-            default -> throw new AssertionError(memory.get(pc));
-          };
-      memory.set(memory.get(pc + 3), result);
+  /**
+   * Returns the smallest {@code noun * 100 + verb} that makes the program produce {@code target},
+   * if any. Each search thread gets its own VM, which it resets for each candidate.
+   */
+  static OptionalInt search(long[] program, long target) {
+    Snapshot initial = new Intcode(program).snapshot();
+    return ParallelSearch.first(
+        0,
+        100 * 100,
+        () -> new Intcode(program),
+        (vm, nounVerb) -> produces(vm, initial, nounVerb / 100, nounVerb % 100, target));
+  }
+
+  private static boolean produces(
+      Intcode vm, Snapshot initial, int input1, int input2, long target) {
+    try {
+      return run(vm, initial, input1, input2) == target;
+    } catch (IntcodeException e) {
+      // Some inputs make the program misbehave, for example by writing to a negative address.
+      // Those can't be the answer, and we don't want the result to depend on which candidates
+      // happened to be tried before the search stopped.
+      return false;
     }
-    return memory.get(0);
+  }
+
+  private static long run(Intcode vm, Snapshot initial, int input1, int input2) {
+    vm.restore(initial);
+    vm.set(1, input1);
+    vm.set(2, input2);
+    vm.runToHalt();
+    return vm.get(0);
   }
 }
@@ -2,19 +2,22 @@ package advent2019;
 
 import static com.google.common.base.Preconditions.checkState;
 import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 
-import adventlib.CharGrid.Coord;
-import adventlib.Dir;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Sets;
 import com.google.common.io.CharStreams;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
 
 /**
@@ -52,48 +55,180 @@ public class Puzzle3 {
       try (Reader r = entry.getValue().call()) {
         List<String> lines = CharStreams.readLines(r);
         checkState(lines.size() == 2);
-        Map<Coord, Integer> coords1 = wireCoords(lines.get(0));
-        Map<Coord, Integer> coords2 = wireCoords(lines.get(1));
-        int nearest =
-            Sets.intersection(coords1.keySet(), coords2.keySet()).stream()
-                .map(c -> abs(c.line()) + abs(c.col()))
-                .sorted()
-                .findFirst()
-                .get();
-        System.out.printf("For %s, nearest is %d\n", name, nearest);
-        int shortest =
-            Sets.intersection(coords1.keySet(), coords2.keySet()).stream()
-                .map(c -> coords1.get(c) + coords2.get(c))
-                .sorted()
-                .findFirst()
-                .get();
-        System.out.printf("For %s, shortest is %d\n", name, shortest);
+        Intersections intersections =
+            intersections(wireSegments(lines.get(0)), wireSegments(lines.get(1)));
+        System.out.printf("For %s, nearest is %d\n", name, intersections.nearest);
+        System.out.printf("For %s, shortest is %d\n", name, intersections.shortest);
       }
     }
   }
 
-  private static Map<Coord, Integer> wireCoords(String line) {
-    List<String> parts = Splitter.on(',').splitToList(line);
-    Map<Coord, Integer> coords = new LinkedHashMap<>();
-    Coord coord = new Coord(0, 0);
-    int step = 0;
-    for (String part : parts) {
-      Dir dir =
-          switch (part.charAt(0)) {
-            case 'L' -> Dir.W;
-            case 'R' -> Dir.E;
-            case 'U' -> Dir.N;
-            case 'D' -> Dir.S;
-            default -> throw new AssertionError(part);
-          };
-      int size = Integer.parseInt(part.substring(1));
-      for (int i = 0; i < size; i++) {
-        coord = dir.move(coord);
-        ++step;
-        coords.putIfAbsent(coord, step);
+  /**
+   * One straight piece of a wire. If {@code horizontal}, the segment is at y={@code fixed} and
+   * runs from x={@code from} to x={@code to}, otherwise it is at x={@code fixed} and runs from
+   * y={@code from} to y={@code to}. Either way {@code to} can be less than {@code from}. The wire
+   * has taken {@code steps} steps when it reaches {@code from}, so the step count at any point on
+   * the segment is a simple calculation. That means that the cost of everything here depends on
+   * the number of segments and not on their lengths.
+   */
+  record Segment(boolean horizontal, long fixed, long from, long to, long steps) {
+    long lo() {
+      return min(from, to);
+    }
+
+    long hi() {
+      return max(from, to);
+    }
+
+    long stepsAt(long along) {
+      return steps + abs(along - from);
+    }
+  }
+
+  /**
+   * The Manhattan distance from the origin to the nearest intersection, and the smallest combined
+   * step count to an intersection. The origin itself doesn't count as an intersection.
+   */
+  record Intersections(long nearest, long shortest) {}
+
+  static List<Segment> wireSegments(String line) {
+    List<Segment> segments = new ArrayList<>();
+    long x = 0;
+    long y = 0;
+    long steps = 0;
+    for (String part : Splitter.on(',').split(line)) {
+      long size = Long.parseLong(part.substring(1));
+      long newX = x;
+      long newY = y;
+      switch (part.charAt(0)) {
+        case 'L' -> newX -= size;
+        case 'R' -> newX += size;
+        case 'U' -> newY += size;
+        case 'D' -> newY -= size;
+        default -> throw new AssertionError(part);
+      }
+      if (size > 0) {
+        boolean horizontal = newY == y;
+        segments.add(
+            horizontal
+                ? new Segment(true, y, x, newX, steps)
+                : new Segment(false, x, y, newY, steps));
+      }
+      x = newX;
+      y = newY;
+      steps += size;
+    }
+    return segments;
+  }
+
+  static Intersections intersections(List<Segment> wire1, List<Segment> wire2) {
+    Accumulator acc = new Accumulator();
+    crossings(wire1, wire2, acc);
+    crossings(wire2, wire1, acc);
+    overlaps(wire1, wire2, true, acc);
+    overlaps(wire1, wire2, false, acc);
+    checkState(acc.nearest < Long.MAX_VALUE, "Wires do not intersect");
+    return new Intersections(acc.nearest, acc.shortest);
+  }
+
+  private static class Accumulator {
+    long nearest = Long.MAX_VALUE;
+    long shortest = Long.MAX_VALUE;
+
+    void add(long x, long y, long steps) {
+      if (x != 0 || y != 0) {
+        nearest = min(nearest, abs(x) + abs(y));
+        shortest = min(shortest, steps);
+      }
+    }
+  }
+
+  /**
+   * Finds the points where a horizontal segment of {@code hWire} crosses a vertical segment of
+   * {@code vWire}, with a sweep line moving in the x direction. The active horizontal segments are
+   * indexed by y, so each vertical segment only looks at the ones within its y range.
+   */
+  private static void crossings(List<Segment> hWire, List<Segment> vWire, Accumulator acc) {
+    // Events at the same x are ordered: horizontal starts, then verticals, then horizontal ends.
+    record Event(long x, int order, Segment segment) {}
+    List<Event> events = new ArrayList<>();
+    for (Segment h : hWire) {
+      if (h.horizontal) {
+        events.add(new Event(h.lo(), 0, h));
+        events.add(new Event(h.hi(), 2, h));
+      }
+    }
+    for (Segment v : vWire) {
+      if (!v.horizontal) {
+        events.add(new Event(v.fixed, 1, v));
+      }
+    }
+    events.sort(Comparator.comparingLong(Event::x).thenComparingInt(Event::order));
+    NavigableMap<Long, List<Segment>> active = new TreeMap<>();
+    for (Event event : events) {
+      Segment seg = event.segment;
+      switch (event.order) {
+        case 0 -> active.computeIfAbsent(seg.fixed, k -> new ArrayList<>()).add(seg);
+        case 1 -> {
+          for (List<Segment> hs : active.subMap(seg.lo(), true, seg.hi(), true).values()) {
+            for (Segment h : hs) {
+              long x = seg.fixed;
+              long y = h.fixed;
+              acc.add(x, y, h.stepsAt(x) + seg.stepsAt(y));
+            }
+          }
+        }
+        case 2 -> {
+          List<Segment> hs = active.get(seg.fixed);
+          hs.remove(seg);
+          if (hs.isEmpty()) {
+            active.remove(seg.fixed);
+          }
+        }
+        default -> throw new AssertionError(event);
+      }
+    }
+  }
+
+  /**
+   * Finds the stretches where a segment of one wire runs along a segment of the other in the same
+   * orientation. Every point in such an overlap is an intersection. The distance from the origin
+   * and the combined step count both vary linearly along the overlap (except for the kink in
+   * distance at the axis), so we only need to look at a few points in it.
+   */
+  private static void overlaps(
+      List<Segment> wire1, List<Segment> wire2, boolean horizontal, Accumulator acc) {
+    Map<Long, List<Segment>> byFixed = new HashMap<>();
+    for (Segment seg : wire1) {
+      if (seg.horizontal == horizontal) {
+        byFixed.computeIfAbsent(seg.fixed, k -> new ArrayList<>()).add(seg);
+      }
+    }
+    for (Segment seg2 : wire2) {
+      if (seg2.horizontal != horizontal) {
+        continue;
+      }
+      for (Segment seg1 : byFixed.getOrDefault(seg2.fixed, List.of())) {
+        long lo = max(seg1.lo(), seg2.lo());
+        long hi = min(seg1.hi(), seg2.hi());
+        if (lo > hi) {
+          continue;
+        }
+        // The candidates are the two ends, their neighbours in case an end is the origin, and the
+        // point nearest the axis with its neighbours for the same reason.
+        long[] candidates = {lo, lo + 1, hi - 1, hi, -1, 0, 1};
+        for (long along : candidates) {
+          if (along >= lo && along <= hi) {
+            long steps = seg1.stepsAt(along) + seg2.stepsAt(along);
+            long fixed = seg1.fixed;
+            if (horizontal) {
+              acc.add(along, fixed, steps);
+            } else {
+              acc.add(fixed, along, steps);
+            }
+          }
+        }
       }
     }
-    coords.remove(new Coord(0, 0));
-    return coords;
   }
-}
\ No newline at end of file
+}
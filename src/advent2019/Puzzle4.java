@@ -1,5 +1,6 @@
 package advent2019;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
 import com.google.common.base.Splitter;
@@ -7,55 +8,174 @@ import com.google.common.io.CharStreams;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.Arrays;
-import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 
 /**
  * @author Éamonn McManus
  */
 public class Puzzle4 {
   public static void main(String[] args) throws Exception {
-    int start, stop;
+    long start, stop;
     try (Reader r = new InputStreamReader(Puzzle4.class.getResourceAsStream("puzzle4.txt"))) {
       var numbers =
           Splitter.on('-')
               .splitToStream(CharStreams.toString(r).trim())
-              .map(Integer::valueOf)
+              .map(Long::valueOf)
               .toList();
       checkState(numbers.size() == 2);
       start = numbers.get(0);
       stop = numbers.get(1);
     }
-    long count1 = IntStream.rangeClosed(start, stop).filter(Puzzle4::candidate1).count();
-    System.out.printf("Part 1 count is %d\n", count1);
-    long count2 = IntStream.rangeClosed(start, stop).filter(Puzzle4::candidate2).count();
-    System.out.printf("Part 2 count is %d\n", count2);
+    System.out.printf("Part 1 count is %d\n", count(start, stop, Rule.PAIR));
+    System.out.printf("Part 2 count is %d\n", count(start, stop, Rule.EXACT_PAIR));
   }
 
-  private static boolean candidate1(int n) {
-    char[] chars = Integer.toString(n).toCharArray();
-    char[] copy = chars.clone();
-    Arrays.sort(copy);
-    if (!Arrays.equals(chars, copy)) {
-      return false;
+  /**
+   * What a password needs in addition to having non-decreasing digits: either two adjacent equal
+   * digits, or two adjacent equal digits that are not part of a longer run.
+   */
+  enum Rule {
+    PAIR,
+    EXACT_PAIR;
+
+    boolean test(long n) {
+      String s = Long.toString(n);
+      State state = State.START;
+      for (int i = 0; i < s.length(); i++) {
+        int digit = s.charAt(i) - '0';
+        if (digit < 0 || digit < state.last) {
+          return false;
+        }
+        state = state.next(digit);
+      }
+      return state.matches(this);
+    }
+  }
+
+  static final long MAX = 999_999_999_999_999_999L;
+
+  /**
+   * Returns how many numbers in {@code [start, stop]} match the rule. Instead of testing each
+   * number, this counts with dynamic programming over the digits, so the time depends on the
+   * number of digits rather than the size of the range.
+   */
+  static long count(long start, long stop, Rule rule) {
+    checkArgument(start >= 0 && stop <= MAX, "Range must be within [0, %s]", MAX);
+    if (start > stop) {
+      return 0;
     }
+    Counter counter = new Counter(rule);
+    return counter.countUpTo(stop) - counter.countUpTo(start - 1);
+  }
+
+  /**
+   * Returns the numbers in {@code [start, stop]} that match the rule, in increasing order. The
+   * stream is lazy and jumps straight from each number to the next one with non-decreasing digits,
+   * so its cost depends on how many such numbers there are rather than on the size of the range.
+   */
+  static LongStream matches(long start, long stop, Rule rule) {
+    checkArgument(start >= 0 && stop <= MAX, "Range must be within [0, %s]", MAX);
+    return LongStream.iterate(
+            nextNonDecreasing(start), n -> n <= stop, n -> nextNonDecreasing(n + 1))
+        .filter(rule::test);
+  }
+
+  /** Returns the smallest number {@code >= n} whose digits are non-decreasing. */
+  static long nextNonDecreasing(long n) {
+    char[] chars = Long.toString(n).toCharArray();
     for (int i = 1; i < chars.length; i++) {
-      if (chars[i - 1] == chars[i]) {
-        return true;
+      if (chars[i] < chars[i - 1]) {
+        Arrays.fill(chars, i, chars.length, chars[i - 1]);
+        break;
       }
     }
-    return false;
+    return Long.parseLong(new String(chars));
   }
 
-  private static boolean candidate2(int n) {
-    if (!candidate1(n)) {
-      return false;
+  /**
+   * The state after reading some non-decreasing digits: the last digit, the length of the run of
+   * that digit (with 3 meaning 3 or more), and whether any earlier, finished run was of length at
+   * least 2 or exactly 2.
+   */
+  private record State(int last, int run, boolean pair, boolean exactPair) {
+    static final State START = new State(0, 0, false, false);
+
+    State next(int digit) {
+      if (digit == last && run > 0) {
+        return new State(last, Math.min(run + 1, 3), pair, exactPair);
+      }
+      return new State(digit, 1, pair || run >= 2, exactPair || run == 2);
     }
-    char[] chars = ("x" + n + "x").toCharArray();
-    for (int i = 1; i < chars.length - 2; i++) {
-      if (chars[i] == chars[i + 1] && chars[i] != chars[i - 1] && chars[i + 1] != chars[i + 2]) {
-        return true;
+
+    boolean matches(Rule rule) {
+      return switch (rule) {
+        case PAIR -> pair || run >= 2;
+        case EXACT_PAIR -> exactPair || run == 2;
+      };
+    }
+
+    int index() {
+      return ((last * 4 + run) * 2 + (pair ? 1 : 0)) * 2 + (exactPair ? 1 : 0);
+    }
+  }
+
+  private static class Counter {
+    private static final int STATES = 10 * 4 * 2 * 2;
+
+    private final Rule rule;
+    private final long[][] memo = new long[19][STATES];
+
+    Counter(Rule rule) {
+      this.rule = rule;
+      for (long[] row : memo) {
+        Arrays.fill(row, -1);
+      }
+    }
+
+    /** Returns how many numbers in {@code [0, bound]} match. */
+    long countUpTo(long bound) {
+      if (bound <= 0) {
+        return 0; // 0 itself has no pair.
+      }
+      int[] digits = Long.toString(bound).chars().map(c -> c - '0').toArray();
+      long count = 0;
+      // Numbers with fewer digits than the bound.
+      for (int len = 1; len < digits.length; len++) {
+        for (int d = 1; d <= 9; d++) {
+          count += suffixes(len - 1, State.START.next(d));
+        }
+      }
+      // Numbers with the same number of digits, sharing a prefix with the bound and then having a
+      // smaller digit.
+      State state = State.START;
+      for (int i = 0; i < digits.length; i++) {
+        int from = (i == 0) ? 1 : state.last;
+        for (int d = from; d < digits[i]; d++) {
+          count += suffixes(digits.length - 1 - i, state.next(d));
+        }
+        if (digits[i] < from) {
+          return count; // the bound and anything else with this prefix is decreasing
+        }
+        state = state.next(digits[i]);
+      }
+      return count + (state.matches(rule) ? 1 : 0);
+    }
+
+    /** Returns how many ways there are to append {@code remaining} digits and end up matching. */
+    private long suffixes(int remaining, State state) {
+      if (remaining == 0) {
+        return state.matches(rule) ? 1 : 0;
+      }
+      int index = state.index();
+      long result = memo[remaining][index];
+      if (result < 0) {
+        result = 0;
+        for (int d = state.last; d <= 9; d++) {
+          result += suffixes(remaining - 1, state.next(d));
+        }
+        memo[remaining][index] = result;
       }
+      return result;
     }
-    return false;
   }
 }
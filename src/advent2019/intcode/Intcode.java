@@ -0,0 +1,263 @@
+package advent2019.intcode;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.Math.addExact;
+import static java.lang.Math.multiplyExact;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import java.util.Arrays;
+
+/**
+ * An Intcode virtual machine, as used by many of the 2019 puzzles. Memory is a {@code long[]} that
+ * grows as needed when the program writes beyond its end; reading beyond the end returns 0.
+ *
+ * <p>Execution pauses whenever the program needs input that has not been supplied, and whenever it
+ * produces output, so a caller can feed one machine's outputs into another's inputs. A machine is
+ * not thread-safe, but machines share no state, so many of them can be run concurrently, for
+ * example each one made with {@link #copy()} from a common original.
+ *
+ * @author Éamonn McManus
+ */
+public final class Intcode {
+  public enum State {
+    /** The program executed a halt instruction. */
+    HALTED,
+    /** The program is waiting for input, which can be supplied with {@link #input}. */
+    NEEDS_INPUT,
+    /** The program produced output, which can be retrieved with {@link #output()}. */
+    OUTPUT,
+  }
+
+  /** A saved copy of the state of a machine, which can be restored with {@link #restore}. */
+  public record Snapshot(long[] memory, int pc, long relativeBase) {}
+
+  /**
+   * Thrown when the program does something invalid, such as executing an unknown instruction,
+   * using a negative address, or overflowing a {@code long}.
+   */
+  public static final class IntcodeException extends IllegalStateException {
+    IntcodeException(String message) {
+      super(message);
+    }
+
+    IntcodeException(String message, Throwable cause) {
+      super(message, cause);
+    }
+  }
+
+  private long[] memory;
+  private int used; // memory[used..] is all zero
+  private int pc;
+  private long relativeBase;
+  private long output;
+  private long[] inputs = new long[4];
+  private int inputHead;
+  private int inputTail;
+
+  public Intcode(long[] program) {
+    this.memory = program.clone();
+    this.used = program.length;
+  }
+
+  private Intcode(Intcode that) {
+    this.memory = Arrays.copyOf(that.memory, that.used);
+    this.used = that.used;
+    this.pc = that.pc;
+    this.relativeBase = that.relativeBase;
+    this.output = that.output;
+    this.inputs = Arrays.copyOfRange(that.inputs, that.inputHead, that.inputTail + 4);
+    this.inputTail = that.inputTail - that.inputHead;
+  }
+
+  /** Parses a program in the usual comma-separated form. */
+  public static long[] parse(String program) {
+    return Splitter.on(',')
+        .trimResults(CharMatcher.whitespace())
+        .omitEmptyStrings()
+        .splitToStream(program)
+        .mapToLong(Long::parseLong)
+        .toArray();
+  }
+
+  /** Returns an independent machine with the same memory, registers and pending input. */
+  public Intcode copy() {
+    return new Intcode(this);
+  }
+
+  public Snapshot snapshot() {
+    return new Snapshot(Arrays.copyOf(memory, used), pc, relativeBase);
+  }
+
+  /**
+   * Restores the state saved by {@link #snapshot()}. Pending input is discarded. This does not
+   * allocate unless the snapshot is bigger than the current memory, so a single machine can
+   * cheaply be rerun many times from the same starting point.
+   */
+  public void restore(Snapshot snapshot) {
+    int size = snapshot.memory.length;
+    if (memory.length < size) {
+      memory = new long[size];
+    }
+    System.arraycopy(snapshot.memory, 0, memory, 0, size);
+    if (used > size) {
+      Arrays.fill(memory, size, used, 0);
+    }
+    used = size;
+    pc = snapshot.pc;
+    relativeBase = snapshot.relativeBase;
+    inputHead = inputTail = 0;
+  }
+
+  public long get(long address) {
+    checkArgument(address >= 0, "Negative address %s", address);
+    return address < used ? memory[(int) address] : 0;
+  }
+
+  public void set(long address, long value) {
+    checkArgument(address >= 0 && address < Integer.MAX_VALUE, "Bad address %s", address);
+    int a = (int) address;
+    if (a >= memory.length) {
+      memory = Arrays.copyOf(memory, Math.max(a + 1, memory.length * 2));
+    }
+    memory[a] = value;
+    if (a >= used) {
+      used = a + 1;
+    }
+  }
+
+  /** Queues a value to be consumed by the next input instruction. */
+  public void input(long value) {
+    if (inputTail == inputs.length) {
+      if (inputHead > 0) {
+        System.arraycopy(inputs, inputHead, inputs, 0, inputTail - inputHead);
+        inputTail -= inputHead;
+        inputHead = 0;
+      } else {
+        inputs = Arrays.copyOf(inputs, inputs.length * 2);
+      }
+    }
+    inputs[inputTail++] = value;
+  }
+
+  /** Returns the value from the output instruction that last caused {@link #run} to pause. */
+  public long output() {
+    return output;
+  }
+
+  /**
+   * Runs the program until it halts, needs input that has not been queued, or produces output.
+   * Calling this again after it returns {@link State#NEEDS_INPUT} or {@link State#OUTPUT} resumes
+   * where the program left off.
+   */
+  public State run() {
+    try {
+      return execute();
+    } catch (ArithmeticException e) {
+      throw new IntcodeException("Overflow at " + pc, e);
+    }
+  }
+
+  private State execute() {
+    while (true) {
+      int instr = (int) load(pc);
+      switch (instr % 100) {
+        case 1 -> {
+          store(address(instr, 3), addExact(param(instr, 1), param(instr, 2)));
+          pc += 4;
+        }
+        case 2 -> {
+          store(address(instr, 3), multiplyExact(param(instr, 1), param(instr, 2)));
+          pc += 4;
+        }
+        case 3 -> {
+          if (inputHead == inputTail) {
+            return State.NEEDS_INPUT;
+          }
+          store(address(instr, 1), inputs[inputHead++]);
+          pc += 2;
+        }
+        case 4 -> {
+          output = param(instr, 1);
+          pc += 2;
+          return State.OUTPUT;
+        }
+        case 5 -> pc = param(instr, 1) != 0 ? toPc(param(instr, 2)) : pc + 3;
+        case 6 -> pc = param(instr, 1) == 0 ? toPc(param(instr, 2)) : pc + 3;
+        case 7 -> {
+          store(address(instr, 3), param(instr, 1) < param(instr, 2) ? 1 : 0);
+          pc += 4;
+        }
+        case 8 -> {
+          store(address(instr, 3), param(instr, 1) == param(instr, 2) ? 1 : 0);
+          pc += 4;
+        }
+        case 9 -> {
+          relativeBase = addExact(relativeBase, param(instr, 1));
+          pc += 2;
+        }
+        case 99 -> {
+          return State.HALTED;
+        }
+        default -> throw new IntcodeException("Bad instruction " + instr + " at " + pc);
+      }
+    }
+  }
+
+  /** Runs the program to completion, checking that it neither needs input nor produces output. */
+  public void runToHalt() {
+    State state = run();
+    if (state != State.HALTED) {
+      throw new IntcodeException("Program stopped with state " + state + " at " + pc);
+    }
+  }
+
+  private long param(int instr, int i) {
+    long value = load(pc + i);
+    return switch (mode(instr, i)) {
+      case 0 -> load(value);
+      case 1 -> value;
+      case 2 -> load(addExact(relativeBase, value));
+      default -> throw new IntcodeException("Bad mode in " + instr + " at " + pc);
+    };
+  }
+
+  private long address(int instr, int i) {
+    long value = load(pc + i);
+    return switch (mode(instr, i)) {
+      case 0 -> value;
+      case 2 -> addExact(relativeBase, value);
+      default -> throw new IntcodeException("Bad write mode in " + instr + " at " + pc);
+    };
+  }
+
+  private long load(long address) {
+    if (address < 0) {
+      throw new IntcodeException("Negative address " + address + " at " + pc);
+    }
+    return address < used ? memory[(int) address] : 0;
+  }
+
+  private void store(long address, long value) {
+    if (address < 0 || address >= Integer.MAX_VALUE) {
+      throw new IntcodeException("Bad address " + address + " at " + pc);
+    }
+    set(address, value);
+  }
+
+  private static int mode(int instr, int i) {
+    return switch (i) {
+      case 1 -> instr / 100 % 10;
+      case 2 -> instr / 1000 % 10;
+      case 3 -> instr / 10000 % 10;
+      default -> throw new AssertionError(i);
+    };
+  }
+
+  private static int toPc(long target) {
+    if (target < 0 || target >= Integer.MAX_VALUE) {
+      throw new IntcodeException("Bad jump target " + target);
+    }
+    return (int) target;
+  }
+}
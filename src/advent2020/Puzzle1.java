@@ -1,10 +1,15 @@
 package advent2020;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.stream.Collectors.joining;
+
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.CharStreams;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -33,28 +38,113 @@ public class Puzzle1 {
       String name = entry.getKey();
       try (Reader r = entry.getValue().call()) {
         List<String> lines = CharStreams.readLines(r);
-        List<Integer> numbers = lines.stream().map(Integer::valueOf).toList();
-        outer:
-        for (int i : numbers) {
-          for (int j : numbers) {
-            if (i + j == 2020) {
-              System.out.printf("For %s, %d * %d = %d\n", name, i, j, i * j);
-              break outer;
+        int[] numbers = lines.stream().mapToInt(Integer::parseInt).sorted().toArray();
+        for (int k = 2; k <= 3; k++) {
+          List<int[]> solutions = kSums(numbers, k, 2020, 1);
+          if (solutions.isEmpty()) {
+            System.out.printf("For %s, no %d numbers sum to 2020\n", name, k);
+          } else {
+            int[] solution = solutions.getFirst();
+            long product = 1;
+            for (int n : solution) {
+              product *= n;
             }
+            System.out.printf(
+                "For %s, %s = %d\n",
+                name,
+                Arrays.stream(solution).mapToObj(String::valueOf).collect(joining(" * ")),
+                product);
           }
         }
-        outer:
-        for (int i : numbers) {
-          for (int j : numbers) {
-            for (int k : numbers) {
-              if (i + j + k == 2020) {
-                System.out.printf("For %s, %d * %d * %d = %d\n", name, i, j, k, i * j * k);
-                break outer;
-              }
-            }
+      }
+    }
+  }
+
+  /**
+   * Returns up to {@code limit} ways of choosing {@code k} entries at distinct positions in
+   * {@code sorted} that sum to {@code target}. Each solution is the chosen values in ascending
+   * order, and no two solutions have the same values, even if {@code sorted} has duplicates. The
+   * solutions are in lexicographic order, so with a limit of 1 this is the first solution.
+   *
+   * <p>The innermost two entries are found with the usual two-pointer scan, so the cost is
+   * O(n<sup>k-1</sup>) at worst. In practice it is much less, because at each level we stop as soon
+   * as even the smallest remaining entries are too big, and skip entries that are too small even
+   * with the biggest ones.
+   */
+  static List<int[]> kSums(int[] sorted, int k, long target, int limit) {
+    checkArgument(k >= 1, "k must be positive: %s", k);
+    checkArgument(limit >= 0, "limit must not be negative: %s", limit);
+    List<int[]> solutions = new ArrayList<>();
+    if (limit > 0) {
+      kSums(sorted, 0, k, target, new int[k], limit, solutions);
+    }
+    return solutions;
+  }
+
+  /** Returns false if the limit has been reached, meaning the search should stop. */
+  private static boolean kSums(
+      int[] sorted, int start, int k, long target, int[] chosen, int limit, List<int[]> solutions) {
+    int n = sorted.length;
+    int depth = chosen.length - k;
+    if (n - start < k) {
+      return true;
+    }
+    if (k == 2) {
+      int lo = start;
+      int hi = n - 1;
+      while (lo < hi) {
+        long sum = (long) sorted[lo] + sorted[hi];
+        if (sum < target) {
+          lo++;
+        } else if (sum > target) {
+          hi--;
+        } else {
+          chosen[depth] = sorted[lo];
+          chosen[depth + 1] = sorted[hi];
+          solutions.add(chosen.clone());
+          if (solutions.size() >= limit) {
+            return false;
+          }
+          int value = sorted[lo];
+          while (lo < hi && sorted[lo] == value) {
+            lo++;
           }
         }
       }
+      return true;
+    }
+    if (k == 1) {
+      int i = Arrays.binarySearch(sorted, start, n, (int) target);
+      if (target == (int) target && i >= 0) {
+        chosen[depth] = (int) target;
+        solutions.add(chosen.clone());
+        return solutions.size() < limit;
+      }
+      return true;
+    }
+    long largest = 0;
+    for (int j = n - k + 1; j < n; j++) {
+      largest += sorted[j];
+    }
+    for (int i = start; i <= n - k; i++) {
+      if (i > start && sorted[i] == sorted[i - 1]) {
+        continue;
+      }
+      long smallest = 0;
+      for (int j = i; j < i + k; j++) {
+        smallest += sorted[j];
+      }
+      if (smallest > target) {
+        break;
+      }
+      if (sorted[i] + largest < target) {
+        continue;
+      }
+      chosen[depth] = sorted[i];
+      if (!kSums(sorted, i + 1, k - 1, target - sorted[i], chosen, limit, solutions)) {
+        return false;
+      }
     }
+    return true;
   }
-}
\ No newline at end of file
+}
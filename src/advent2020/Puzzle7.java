@@ -1,6 +1,8 @@
 package advent2020;
 
 import static com.google.common.base.Preconditions.checkState;
+import static java.lang.Math.addExact;
+import static java.lang.Math.multiplyExact;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.graph.MutableValueGraph;
@@ -10,7 +12,11 @@ import com.google.common.io.CharStreams;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.LinkedHashSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -62,36 +68,120 @@ public class Puzzle7 {
             graph.putEdgeValue(from, to, n);
           }
         }
-        Set<String> preds = predecessors(graph, "shiny gold");
+        BagRules rules = BagRules.compile(graph);
         System.out.printf(
-            "For %s, number of bags that can contain a shiny gold bag is %d\n", name, preds.size());
+            "For %s, number of bags that can contain a shiny gold bag is %d\n",
+            name, rules.containerCount("shiny gold"));
         System.out.printf(
             "For %s, number of bags that a shiny bag contains is %d\n",
-            name, containment(graph, "shiny gold") - 1);
+            name, rules.contents("shiny gold"));
       }
     }
   }
 
-  private static <N> long containment(ValueGraph<N, Integer> graph, N node) {
-    long n = 1;
-    for (N succ : graph.successors(node)) {
-      long multiplier = graph.edgeValue(node, succ).get();
-      n += multiplier * containment(graph, succ);
+  /**
+   * The bag rules, with the colours numbered in topological order, so that every colour comes
+   * before all the colours it contains. Then one pass in reverse order computes how many bags each
+   * colour contains, since the counts for the contained colours are already known. Another pass in
+   * forward order computes the set of colours that can contain each colour, as the union over its
+   * direct containers of their own sets plus themselves, and we record the size of each set. After
+   * that, each query is a lookup.
+   */
+  static class BagRules {
+    private final ImmutableMap<String, Integer> index;
+    private final long[] contents;
+    private final int[] containerCounts;
+
+    private BagRules(ImmutableMap<String, Integer> index, long[] contents, int[] containerCounts) {
+      this.index = index;
+      this.contents = contents;
+      this.containerCounts = containerCounts;
     }
-    return n;
-  }
 
-  private static <N> Set<N> predecessors(ValueGraph<N, ?> graph, N node) {
-    Set<N> preds = new LinkedHashSet<>();
-    predecessors(graph, node, preds);
-    return preds;
-  }
+    static BagRules compile(ValueGraph<String, Integer> graph) {
+      List<String> order = topologicalOrder(graph);
+      int n = order.size();
+      ImmutableMap.Builder<String, Integer> indexBuilder = ImmutableMap.builder();
+      for (int i = 0; i < n; i++) {
+        indexBuilder.put(order.get(i), i);
+      }
+      ImmutableMap<String, Integer> index = indexBuilder.buildOrThrow();
+      int[][] children = new int[n][];
+      int[][] counts = new int[n][];
+      for (int i = 0; i < n; i++) {
+        String colour = order.get(i);
+        Set<String> succs = graph.successors(colour);
+        children[i] = new int[succs.size()];
+        counts[i] = new int[succs.size()];
+        int j = 0;
+        for (String succ : succs) {
+          children[i][j] = index.get(succ);
+          counts[i][j] = graph.edgeValue(colour, succ).get();
+          j++;
+        }
+      }
 
-  private static <N> void predecessors(ValueGraph<N, ?> graph, N node, Set<N> preds) {
-    for (N pred : graph.predecessors(node)) {
-      if (preds.add(pred)) {
-        predecessors(graph, pred, preds);
+      long[] contents = new long[n];
+      for (int i = n - 1; i >= 0; i--) {
+        long total = 0;
+        for (int j = 0; j < children[i].length; j++) {
+          long eachChild = addExact(1, contents[children[i][j]]);
+          total = addExact(total, multiplyExact(counts[i][j], eachChild));
+        }
+        contents[i] = total;
+      }
+
+      BitSet[] containers = new BitSet[n];
+      for (int i = 0; i < n; i++) {
+        containers[i] = new BitSet(n);
+      }
+      for (int i = 0; i < n; i++) {
+        for (int child : children[i]) {
+          containers[child].or(containers[i]);
+          containers[child].set(i);
+        }
+      }
+      int[] containerCounts = new int[n];
+      for (int i = 0; i < n; i++) {
+        containerCounts[i] = containers[i].cardinality();
+      }
+      return new BagRules(index, contents, containerCounts);
+    }
+
+    /** Returns how many bags a bag of the given colour contains, not counting itself. */
+    long contents(String colour) {
+      Integer i = index.get(colour);
+      return i == null ? 0 : contents[i];
+    }
+
+    /** Returns how many colours of bag can contain a bag of the given colour, at any depth. */
+    int containerCount(String colour) {
+      Integer i = index.get(colour);
+      return i == null ? 0 : containerCounts[i];
+    }
+
+    private static List<String> topologicalOrder(ValueGraph<String, Integer> graph) {
+      Map<String, Integer> inDegrees = new HashMap<>();
+      Deque<String> ready = new ArrayDeque<>();
+      for (String node : graph.nodes()) {
+        int inDegree = graph.inDegree(node);
+        inDegrees.put(node, inDegree);
+        if (inDegree == 0) {
+          ready.add(node);
+        }
+      }
+      List<String> order = new ArrayList<>();
+      while (!ready.isEmpty()) {
+        String node = ready.remove();
+        order.add(node);
+        for (String succ : graph.successors(node)) {
+          if (inDegrees.merge(succ, -1, Integer::sum) == 0) {
+            ready.add(succ);
+          }
+        }
       }
+      checkState(order.size() == graph.nodes().size(), "Bag rules are cyclic");
+      return order;
     }
   }
-}
\ No newline at end of file
+}
@@ -7,12 +7,10 @@ import com.google.common.io.CharStreams;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.ArrayList;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -39,41 +37,57 @@ public class Puzzle8 {
 
   private static final Pattern PATTERN = Pattern.compile("(acc|jmp|nop) ([-+][0-9]+)");
 
-  record Instr(String op, int arg) {}
+  private static final int ACC = 0;
+  private static final int JMP = 1;
+  private static final int NOP = 2;
+
+  /** A program compiled into parallel arrays of opcodes and arguments. */
+  record Program(int[] ops, int[] args) {
+    static Program parse(List<String> lines) {
+      int n = lines.size();
+      int[] ops = new int[n];
+      int[] args = new int[n];
+      for (int i = 0; i < n; i++) {
+        Matcher m = PATTERN.matcher(lines.get(i));
+        checkState(m.matches(), "Bad instruction %s", lines.get(i));
+        ops[i] =
+            switch (m.group(1)) {
+              case "acc" -> ACC;
+              case "jmp" -> JMP;
+              case "nop" -> NOP;
+              default -> throw new AssertionError(m.group(1));
+            };
+        args[i] = Integer.parseInt(m.group(2));
+      }
+      return new Program(ops, args);
+    }
+
+    int size() {
+      return ops.length;
+    }
+
+    /** The instruction that runs after the one at {@code pc}, with its jmp/nop flipped if asked. */
+    int next(int pc, boolean flipped) {
+      boolean jumps = (ops[pc] == JMP) != (flipped && ops[pc] != ACC);
+      return jumps ? pc + args[pc] : pc + 1;
+    }
+  }
 
   public static void main(String[] args) throws Exception {
     for (var entry : INPUT_PRODUCERS.entrySet()) {
       String name = entry.getKey();
       try (Reader r = entry.getValue().call()) {
         List<String> lines = CharStreams.readLines(r);
-        List<Instr> instrs =
-            lines.stream()
-                .map(PATTERN::matcher)
-                .peek(m -> checkState(m.matches()))
-                .map(m -> new Instr(m.group(1), Integer.parseInt(m.group(2))))
-                .toList();
-        var result1 = execute(instrs);
+        Program program = Program.parse(lines);
+        var result1 = execute(program, -1);
         if (result1 instanceof Loops(int acc)) {
           System.out.printf("For %s, loop detected with acc=%d\n", name, acc);
         } else {
           throw new AssertionError("Program did not loop");
         }
-        for (int i = 0; i < instrs.size(); i++) {
-          Instr instr = instrs.get(i);
-          Instr alt =
-              switch (instr.op) {
-                case "nop" -> new Instr("jmp", instr.arg);
-                case "jmp" -> new Instr("nop", instr.arg);
-                default -> null;
-              };
-          if (alt != null) {
-            List<Instr> altInstrs = new ArrayList<>(instrs);
-            altInstrs.set(i, alt);
-            if (execute(altInstrs) instanceof Terminates(int acc1)) {
-              System.out.printf("For %s, loop fixed with acc=%d\n", name, acc1);
-              break;
-            }
-          }
+        int fix = findFix(program);
+        if (fix >= 0 && execute(program, fix) instanceof Terminates(int acc1)) {
+          System.out.printf("For %s, loop fixed with acc=%d\n", name, acc1);
         }
       }
     }
@@ -87,22 +101,79 @@ public class Puzzle8 {
 
   private record Terminates(int acc) implements Result {}
 
-  private static Result execute(List<Instr> instrs) {
-    Set<Integer> seen = new LinkedHashSet<>();
+  /** Runs the program, with the jmp or nop at {@code flip} flipped, or nothing if it is -1. */
+  private static Result execute(Program program, int flip) {
+    int n = program.size();
+    boolean[] seen = new boolean[n];
     int pc = 0;
     int acc = 0;
-    while (pc < instrs.size() && seen.add(pc)) {
-      Instr instr = instrs.get(pc);
-      switch (instr.op) {
-        case "nop" -> pc++;
-        case "acc" -> {
-          acc += instr.arg;
-          pc++;
+    while (pc < n && !seen[pc]) {
+      seen[pc] = true;
+      if (program.ops[pc] == ACC) {
+        acc += program.args[pc];
+      }
+      pc = program.next(pc, pc == flip);
+    }
+    return pc < n ? new Loops(acc) : new Terminates(acc);
+  }
+
+  /**
+   * Returns the index of the jmp or nop that must be flipped for the program to terminate, or -1.
+   * Rather than trying every flip, we first find every instruction that leads to termination, by
+   * searching backwards from the end along the reversed control-flow edges. Then we walk the
+   * original path from the start. The fix is the first instruction on that path whose flipped
+   * successor leads to termination. Everything is linear in the size of the program.
+   */
+  static int findFix(Program program) {
+    int n = program.size();
+    // Node n stands for termination, which is any jump to n or beyond. Jumps to negative addresses
+    // never terminate, so they have no edge. The reversed edges are stored in compressed form:
+    // the predecessors of node t are preds[start[t]] to preds[start[t + 1] - 1].
+    int[] start = new int[n + 2];
+    for (int pc = 0; pc < n; pc++) {
+      int target = program.next(pc, false);
+      if (target >= 0) {
+        start[Math.min(target, n) + 1]++;
+      }
+    }
+    for (int t = 0; t <= n; t++) {
+      start[t + 1] += start[t];
+    }
+    int[] preds = new int[start[n + 1]];
+    int[] fill = start.clone();
+    for (int pc = 0; pc < n; pc++) {
+      int target = program.next(pc, false);
+      if (target >= 0) {
+        preds[fill[Math.min(target, n)]++] = pc;
+      }
+    }
+    boolean[] terminates = new boolean[n + 1];
+    int[] queue = new int[n + 1];
+    int head = 0;
+    int tail = 0;
+    terminates[n] = true;
+    queue[tail++] = n;
+    while (head < tail) {
+      int t = queue[head++];
+      for (int i = start[t]; i < start[t + 1]; i++) {
+        int pred = preds[i];
+        if (!terminates[pred]) {
+          terminates[pred] = true;
+          queue[tail++] = pred;
+        }
+      }
+    }
+
+    boolean[] seen = new boolean[n];
+    for (int pc = 0; pc >= 0 && pc < n && !seen[pc]; pc = program.next(pc, false)) {
+      seen[pc] = true;
+      if (program.ops[pc] != ACC) {
+        int flipped = program.next(pc, true);
+        if (flipped >= 0 && terminates[Math.min(flipped, n)]) {
+          return pc;
         }
-        case "jmp" -> pc += instr.arg;
-        default -> throw new AssertionError(instr.op);
       }
     }
-    return pc < instrs.size() ? new Loops(acc) : new Terminates(acc);
+    return -1;
   }
-}
\ No newline at end of file
+}
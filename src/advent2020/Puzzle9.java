@@ -1,10 +1,12 @@
 package advent2020;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import com.google.common.io.CharStreams;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
+import java.util.OptionalLong;
 
 /**
  * @author Éamonn McManus
@@ -12,46 +14,143 @@ import java.util.List;
 public class Puzzle9 {
   public static void main(String[] args) throws Exception {
     try (Reader r = new InputStreamReader(Puzzle9.class.getResourceAsStream("puzzle9.txt"))) {
-      List<Long> numbers = CharStreams.readLines(r).stream().map(Long::parseLong).toList();
+      long[] numbers = CharStreams.readLines(r).stream().mapToLong(Long::parseLong).toArray();
 
       // Part 1
-      long target = -1;
-      for (int i = 25; i < numbers.size(); i++) {
-        long ni = numbers.get(i);
-        boolean found = false;
-        for (int j = i - 25; j < i; j++) {
-          long nj = numbers.get(j);
-          if (nj * 2 == ni) {
-            continue;
-          }
-          for (int k = j + 1; k < i; k++) {
-            long nk = numbers.get(k);
-            if (nj + nk == ni) {
-              found = true;
-              break;
-            }
-          }
-        }
-        if (!found) {
-          System.out.printf("No numbers sum to %d\n", ni);
-          target = ni;
-          break;
-        }
+      OptionalLong invalid = firstInvalid(numbers, 25);
+      if (invalid.isEmpty()) {
+        System.out.println("All numbers are valid");
+        return;
       }
+      long target = invalid.getAsLong();
+      System.out.printf("No numbers sum to %d\n", target);
 
       // Part 2. I initially summed the first and last numbers of the span rather than the minimum
       // and maximum. D'oh!
-      for (int i = 0; i < numbers.size(); i++) {
-        long sum = 0;
-        int j;
-        for (j = i; j < numbers.size() && (sum += numbers.get(j)) < target; j++) {}
-        if (sum == target) {
-          List<Long> span = numbers.subList(i, j + 1);
-          System.out.printf(
-              "Encryption weakness is %d\n", Collections.min(span) + Collections.max(span));
-          break;
+      OptionalLong weakness = weakness(numbers, target);
+      if (weakness.isPresent()) {
+        System.out.printf("Encryption weakness is %d\n", weakness.getAsLong());
+      } else {
+        System.out.println("No span sums to the target");
+      }
+    }
+  }
+
+  /**
+   * Returns the first number, after the initial {@code window} numbers, that is not the sum of two
+   * different numbers among the {@code window} numbers before it.
+   */
+  static OptionalLong firstInvalid(long[] numbers, int window) {
+    PairSums pairSums = new PairSums(window);
+    for (long n : numbers) {
+      if (pairSums.full() && !pairSums.contains(n)) {
+        return OptionalLong.of(n);
+      }
+      pairSums.add(n);
+    }
+    return OptionalLong.empty();
+  }
+
+  /**
+   * The numbers in a sliding window, kept both in arrival order (a ring buffer, to know which
+   * number leaves) and in sorted order. Sliding the window removes the leaving number from the
+   * sorted array and inserts the arriving one, each with a binary search and an
+   * {@link System#arraycopy}. Checking whether a number is the sum of two different values is a
+   * two-pointer scan inwards from both ends of the sorted array. Both are O(window), with no
+   * allocation and O(window) memory however large the window is.
+   */
+  static class PairSums {
+    private final long[] ring;
+    private final long[] sorted;
+    private int size;
+    private int next;
+
+    PairSums(int window) {
+      checkArgument(window >= 2, "Window must have at least two numbers: %s", window);
+      this.ring = new long[window];
+      this.sorted = new long[window];
+    }
+
+    boolean full() {
+      return size == ring.length;
+    }
+
+    boolean contains(long sum) {
+      int lo = 0;
+      int hi = size - 1;
+      while (lo < hi) {
+        long pairSum = sorted[lo] + sorted[hi];
+        if (pairSum == sum) {
+          // If the two values are equal then so is everything between them, so no pair of
+          // different values can have this sum.
+          return sorted[lo] != sorted[hi];
+        } else if (pairSum < sum) {
+          lo++;
+        } else {
+          hi--;
         }
       }
+      return false;
+    }
+
+    void add(long n) {
+      if (full()) {
+        int i = Arrays.binarySearch(sorted, 0, size, ring[next]);
+        System.arraycopy(sorted, i + 1, sorted, i, size - i - 1);
+        size--;
+      }
+      int i = Arrays.binarySearch(sorted, 0, size, n);
+      if (i < 0) {
+        i = -i - 1;
+      }
+      System.arraycopy(sorted, i, sorted, i + 1, size - i);
+      sorted[i] = n;
+      size++;
+      ring[next] = n;
+      next = (next + 1) % ring.length;
+    }
+  }
+
+  /**
+   * Finds a contiguous span of at least two numbers that sums to {@code target}, and returns the
+   * sum of the smallest and largest numbers in it. The numbers must not be negative, so that we can
+   * find the span with two pointers: extending the span at the end increases the sum and dropping
+   * numbers from the start decreases it. We also keep a deque of candidate minimum positions
+   * (increasing values) and another of candidate maximum positions (decreasing values), so the
+   * minimum and maximum of the span are always at the front. Everything is O(n).
+   */
+  static OptionalLong weakness(long[] numbers, long target) {
+    int n = numbers.length;
+    // Each index enters each deque at most once, so plain arrays with head and tail suffice.
+    int[] mins = new int[n];
+    int[] maxes = new int[n];
+    int minHead = 0, minTail = 0, maxHead = 0, maxTail = 0;
+    int lo = 0;
+    long sum = 0;
+    for (int hi = 0; hi < n; hi++) {
+      checkArgument(numbers[hi] >= 0, "Negative number %s", numbers[hi]);
+      sum += numbers[hi];
+      while (minTail > minHead && numbers[mins[minTail - 1]] >= numbers[hi]) {
+        minTail--;
+      }
+      mins[minTail++] = hi;
+      while (maxTail > maxHead && numbers[maxes[maxTail - 1]] <= numbers[hi]) {
+        maxTail--;
+      }
+      maxes[maxTail++] = hi;
+      while (sum > target) {
+        sum -= numbers[lo++];
+      }
+      while (mins[minHead] < lo && minHead < minTail - 1) {
+        minHead++;
+      }
+      while (maxes[maxHead] < lo && maxHead < maxTail - 1) {
+        maxHead++;
+      }
+      if (sum == target && hi > lo) {
+        return OptionalLong.of(numbers[mins[minHead]] + numbers[maxes[maxHead]]);
+      }
     }
+    return OptionalLong.empty();
   }
 }
@@ -37,24 +37,26 @@ public class Puzzle1 {
       String name = entry.getKey();
       try (Reader r = entry.getValue().call()) {
         List<String> lines = CharStreams.readLines(r);
-        List<Integer> readings = lines.stream().map(Integer::valueOf).toList();
-        int increases = 0;
-        for (int i = 1; i < readings.size(); i++) {
-          if (readings.get(i) > readings.get(i - 1)) {
-            increases++;
-          }
-        }
-        System.out.println("Increases for " + name + ": " + increases);
-        int windowIncreases = 0;
-        int windowSum = readings.get(0) + readings.get(1) + readings.get(2);
-        for (int i = 3; i < readings.size(); i++) {
-          int newWindowSum = windowSum - readings.get(i - 3) + readings.get(i);
-          if (newWindowSum > windowSum) {
-            windowIncreases++;
-          }
-        }
-        System.out.println("Window increases for " + name + ": " + windowIncreases);
+        int[] readings = lines.stream().mapToInt(Integer::parseInt).toArray();
+        System.out.println("Increases for " + name + ": " + increases(readings, 1));
+        System.out.println("Window increases for " + name + ": " + increases(readings, 3));
       }
     }
   }
+
+  /**
+   * Counts how many sliding windows of the given size have a larger sum than the window before.
+   * Consecutive windows share all but their first and last elements, so comparing the sums just
+   * means comparing the element that enters with the element that leaves. That means we don't need
+   * to compute any sums at all.
+   */
+  static int increases(int[] readings, int window) {
+    int count = 0;
+    for (int i = window; i < readings.length; i++) {
+      if (readings[i] > readings[i - window]) {
+        count++;
+      }
+    }
+    return count;
+  }
 }
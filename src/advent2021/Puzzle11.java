@@ -1,21 +1,17 @@
 package advent2021;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import adventlib.CharGrid;
-import adventlib.CharGrid.Coord;
-import adventlib.Dir;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.graph.ImmutableGraph;
 import com.google.common.io.CharStreams;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.EnumSet;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.OptionalLong;
 import java.util.concurrent.Callable;
-import java.util.function.Function;
 
 /**
  * @author Éamonn McManus
@@ -41,64 +37,100 @@ public class Puzzle11 {
           "problem",
               () -> new InputStreamReader(Puzzle11.class.getResourceAsStream("puzzle11.txt")));
 
-  private static class Octopus {
-    int energy;
-
-    Octopus(int energy) {
-      this.energy = energy;
-    }
-  }
-
   public static void main(String[] args) throws Exception {
     for (var entry : INPUT_PRODUCERS.entrySet()) {
       String name = entry.getKey();
       try (Reader r = entry.getValue().call()) {
         List<String> lines = CharStreams.readLines(r);
         CharGrid grid = new CharGrid(lines);
-        Function<Coord, Octopus> nodeFactory = coord -> new Octopus(grid.get(coord) - '0');
-        ImmutableGraph<Octopus> graph = grid.toGraph(EnumSet.allOf(Dir.class), nodeFactory);
 
         // Part 1
-        int flashCount = 0;
+        Octopuses octopuses = new Octopuses(grid);
+        long flashCount = 0;
         for (int i = 0; i < 100; i++) {
-          flashCount += step(graph);
+          flashCount += octopuses.step();
         }
         System.out.printf("For %s, after 100 steps, total flashes %d\n", name, flashCount);
 
         // Part 2
-        graph = grid.toGraph(EnumSet.allOf(Dir.class), nodeFactory);
-        int step;
-        for (step = 1; ; step++) {
-          int stepCount = step(graph);
-          if (stepCount == grid.size()) {
-            break;
-          }
-        }
-        System.out.printf("For %s, all octopodes flashed at step %d\n", name, step);
+        OptionalLong step = new Octopuses(grid).firstSynchronizedStep(Long.MAX_VALUE);
+        System.out.printf("For %s, all octopodes flashed at step %d\n", name, step.getAsLong());
       }
     }
   }
 
-  private static int step(ImmutableGraph<Octopus> graph) {
-    for (var octopus : graph.nodes()) {
-      octopus.energy++;
+  /**
+   * The energy levels of a grid of octopuses, in a flat array indexed by
+   * {@code line * width + col}. During a step, an octopus is added to a worklist at the moment its
+   * energy goes above 9. Processing the worklist increments the neighbours of each octopus on it,
+   * which may add more octopuses. Each octopus reaches 10 exactly once, so it is on the worklist at
+   * most once per step, and a step costs O(cells + flashes).
+   */
+  static final class Octopuses {
+    private final int width;
+    private final int height;
+    private final int[] energy;
+    private final int[] flashed;
+
+    Octopuses(CharGrid grid) {
+      this.width = grid.width();
+      this.height = grid.height();
+      this.energy = new int[width * height];
+      this.flashed = new int[width * height];
+      for (int line = 0; line < height; line++) {
+        for (int col = 0; col < width; col++) {
+          int e = grid.get(line, col) - '0';
+          checkArgument(e >= 0 && e <= 9, "Bad energy at %s,%s", line, col);
+          energy[line * width + col] = e;
+        }
+      }
     }
-    Set<Octopus> flashed = new LinkedHashSet<>();
-    boolean changed;
-    do {
-      changed = false;
-      for (var octopus : graph.nodes()) {
-        if (octopus.energy > 9 && flashed.add(octopus)) {
-          changed = true;
-          for (var adjacent : graph.successors(octopus)) {
-            adjacent.energy++;
+
+    /** Runs one step and returns the number of octopuses that flashed. */
+    int step() {
+      int tail = 0;
+      for (int i = 0; i < energy.length; i++) {
+        if (++energy[i] == 10) {
+          flashed[tail++] = i;
+        }
+      }
+      for (int head = 0; head < tail; head++) {
+        int i = flashed[head];
+        int line = i / width;
+        int col = i % width;
+        int lineFrom = Math.max(line - 1, 0);
+        int lineTo = Math.min(line + 1, height - 1);
+        int colFrom = Math.max(col - 1, 0);
+        int colTo = Math.min(col + 1, width - 1);
+        for (int l = lineFrom; l <= lineTo; l++) {
+          for (int c = colFrom; c <= colTo; c++) {
+            int j = l * width + c;
+            // This also increments the flashing octopus itself, which is harmless since it is
+            // already above 9 and is about to be reset.
+            if (++energy[j] == 10) {
+              flashed[tail++] = j;
+            }
           }
         }
       }
-    } while (changed);
-    for (var octopus : flashed) {
-      octopus.energy = 0;
+      for (int head = 0; head < tail; head++) {
+        energy[flashed[head]] = 0;
+      }
+      return tail;
+    }
+
+    /**
+     * Runs steps until every octopus flashes in the same step, and returns the number of that step
+     * counting from 1, or an empty result if that doesn't happen within {@code maxSteps} steps.
+     * Nothing is allocated per step, so this can run for millions of steps.
+     */
+    OptionalLong firstSynchronizedStep(long maxSteps) {
+      for (long step = 1; step <= maxSteps; step++) {
+        if (step() == energy.length) {
+          return OptionalLong.of(step);
+        }
+      }
+      return OptionalLong.empty();
     }
-    return flashed.size();
   }
-}
\ No newline at end of file
+}
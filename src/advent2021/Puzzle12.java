@@ -1,6 +1,8 @@
 package advent2021;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.Math.addExact;
+import static java.lang.Math.multiplyExact;
 
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableMap;
@@ -12,8 +14,11 @@ import com.google.common.io.CharStreams;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 
 /**
@@ -61,59 +66,132 @@ public class Puzzle12 {
         }
         Graph<String> graph = graphBuilder.build();
 
+        Caves caves = Caves.of(graph);
+
         // Part 1
-        long part1Paths = countPaths1(graph, "start", ImmutableSet.of());
+        long part1Paths = caves.countPaths(false);
         System.out.printf("For Part 1 %s, number of paths is %d\n", name, part1Paths);
 
         // Part 2
-        long part2Paths = 0;
-        part2Paths += countPaths2(graph, "start", ImmutableSet.of(), false);
+        long part2Paths = caves.countPaths(true);
         System.out.printf("For Part 2 %s, number of paths is %d\n", name, part2Paths);
       }
     }
   }
 
-  private static long countPaths1(Graph<String> graph, String start, ImmutableSet<String> visited) {
-    if (visited.contains(start)) {
-      return 0;
-    }
-    if (start.equals("end")) {
-      return 1;
-    }
-    long paths = 0;
-    if (startsWithLowerCase(start)) {
-      visited = ImmutableSet.<String>builder().addAll(visited).add(start).build();
-    }
-    for (String next : graph.successors(start)) {
-      paths += countPaths1(graph, next, visited);
-    }
-    return paths;
-  }
+  /*
+    The number of paths grows very fast, so we count them without enumerating them. The number of
+    paths from a given point onwards depends only on which cave we are in, which small caves we have
+    already visited, and whether we have already used our one repeat visit. So we can count the
+    paths for each of those states just once.
 
-  private static final ImmutableSet<String> START_END = ImmutableSet.of("start", "end");
+    Big caves don't need to be part of the state at all. If two big caves were adjacent there would
+    be infinitely many paths, so every big cave is surrounded by small ones, and going through a big
+    cave is just another way of getting from one small cave to another. So we number the small
+    caves other than start and end from 0, and record for each pair of caves how many ways there
+    are to get from one to the other, either directly or through a single big cave. Then the
+    visited caves are a bitmask over those numbers.
+  */
+  static final class Caves {
+    /** The memo has {@code 2 * middleCount * 2^middleCount} entries, which limits this. */
+    private static final int MAX_MIDDLE = 16;
 
-  private static long countPaths2(
-      Graph<String> graph, String start, ImmutableSet<String> visited, boolean haveVisitedTwice) {
-    if (visited.contains(start)) {
-      if (haveVisitedTwice || START_END.contains(start)) {
-        return 0;
-      }
-      haveVisitedTwice = true;
+    private final int middleCount; // small caves other than start and end
+    private final int start;
+    private final int end;
+    private final long[][] ways;
+    private final long[] memo;
+
+    private Caves(int middleCount, long[][] ways) {
+      this.middleCount = middleCount;
+      this.start = middleCount;
+      this.end = middleCount + 1;
+      this.ways = ways;
+      this.memo = new long[2 * middleCount << middleCount];
+      Arrays.fill(memo, -1);
     }
-    if (start.equals("end")) {
-      return 1;
+
+    static Caves of(Graph<String> graph) {
+      checkArgument(
+          graph.nodes().contains("start") && graph.nodes().contains("end"),
+          "Graph must contain start and end");
+      Map<String, Integer> indexes = new LinkedHashMap<>();
+      for (String cave : graph.nodes()) {
+        if (isSmall(cave) && !START_END.contains(cave)) {
+          indexes.put(cave, indexes.size());
+        }
+      }
+      int middleCount = indexes.size();
+      checkArgument(middleCount <= MAX_MIDDLE, "Too many small caves: %s", middleCount);
+      indexes.put("start", middleCount);
+      indexes.put("end", middleCount + 1);
+      long[][] ways = new long[middleCount + 2][middleCount + 2];
+      for (String cave : graph.nodes()) {
+        if (isSmall(cave)) {
+          int from = indexes.get(cave);
+          for (String next : graph.successors(cave)) {
+            if (isSmall(next)) {
+              ways[from][indexes.get(next)]++;
+            }
+          }
+        } else {
+          Set<String> around = graph.successors(cave);
+          for (String a : around) {
+            checkArgument(isSmall(a), "Adjacent big caves %s and %s", cave, a);
+            for (String b : around) {
+              ways[indexes.get(a)][indexes.get(b)]++;
+            }
+          }
+        }
+      }
+      return new Caves(middleCount, ways);
     }
-    long paths = 0;
-    if (startsWithLowerCase(start)) {
-      visited = ImmutableSet.<String>builder().addAll(visited).add(start).build();
+
+    /**
+     * Returns the number of paths from start to end that visit small caves at most once, except
+     * that if {@code revisitOne} is true then one small cave other than start and end can be
+     * visited twice.
+     */
+    long countPaths(boolean revisitOne) {
+      return count(start, 0, !revisitOne);
     }
-    for (String next : graph.successors(start)) {
-      paths += countPaths2(graph, next, visited, haveVisitedTwice);
+
+    private long count(int cave, int visited, boolean revisited) {
+      int key = 0;
+      if (cave < middleCount) {
+        key = ((visited * middleCount + cave) << 1) | (revisited ? 1 : 0);
+        if (memo[key] >= 0) {
+          return memo[key];
+        }
+      }
+      long[] from = ways[cave];
+      long paths = from[end];
+      for (int next = 0; next < middleCount; next++) {
+        long w = from[next];
+        if (w == 0) {
+          continue;
+        }
+        int bit = 1 << next;
+        long after;
+        if ((visited & bit) == 0) {
+          after = count(next, visited | bit, revisited);
+        } else if (!revisited) {
+          after = count(next, visited, true);
+        } else {
+          continue;
+        }
+        paths = addExact(paths, multiplyExact(w, after));
+      }
+      if (cave < middleCount) {
+        memo[key] = paths;
+      }
+      return paths;
     }
-    return paths;
   }
 
-  private static boolean startsWithLowerCase(String s) {
-    return Character.isLowerCase(s.charAt(0));
+  private static final ImmutableSet<String> START_END = ImmutableSet.of("start", "end");
+
+  private static boolean isSmall(String cave) {
+    return Character.isLowerCase(cave.charAt(0));
   }
-}
\ No newline at end of file
+}
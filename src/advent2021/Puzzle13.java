@@ -1,17 +1,18 @@
 package advent2021;
 
 import static com.google.common.base.Preconditions.checkState;
-import static java.util.Arrays.stream;
+import static java.util.stream.Collectors.toSet;
 
-import com.google.common.base.Splitter;
+import adventlib.NumberScanner;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.CharStreams;
-import com.google.common.primitives.Booleans;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.regex.Pattern;
 
@@ -50,8 +51,6 @@ public class Puzzle13 {
           "problem",
               () -> new InputStreamReader(Puzzle13.class.getResourceAsStream("puzzle13.txt")));
 
-  record Coord(int x, int y) {}
-
   sealed interface Fold {}
 
   record XFold(int x) implements Fold {}
@@ -67,20 +66,12 @@ public class Puzzle13 {
         checkState(blank > 0);
         checkState(blank == lines.lastIndexOf(""));
 
-        List<Coord> coords =
+        long[] dots =
             lines.subList(0, blank).stream()
-                .map(
-                    line -> {
-                      var xy = Splitter.on(',').splitToStream(line).map(Integer::valueOf).toList();
-                      return new Coord(xy.get(0), xy.get(1));
-                    })
-                .toList();
-        int maxX = coords.stream().mapToInt(Coord::x).max().getAsInt();
-        int maxY = coords.stream().mapToInt(Coord::y).max().getAsInt();
-        boolean[][] grid = new boolean[maxX + 1][maxY + 1];
-        for (Coord coord : coords) {
-          grid[coord.x][coord.y] = true;
-        }
+                .map(NumberScanner::ints)
+                .peek(xy -> checkState(xy.length == 2))
+                .mapToLong(xy -> pack(xy[0], xy[1]))
+                .toArray();
 
         Pattern foldAlong = Pattern.compile("fold along ([xy])=(\\d+)");
         List<Fold> folds =
@@ -98,57 +89,98 @@ public class Puzzle13 {
                           };
                     })
                 .toList();
-        boolean[][] gridAfterFirstFold = fold(grid, folds.get(0));
+        long[] afterFirstFold = fold(dots, folds.subList(0, 1));
         System.out.printf(
-            "For %s, after first fold dot count is %d\n", name, count(gridAfterFirstFold));
-        boolean[][] newGrid = grid;
-        for (Fold fold : folds) {
-          newGrid = fold(newGrid, fold);
-        }
-        show(newGrid);
+            "For %s, after first fold dot count is %d\n", name, afterFirstFold.length);
+        show(fold(dots, folds));
       }
     }
   }
 
-  // input is indexed [x][y] so input[0] is all spaces with x coordinate 0.
-  // input.length says how many x values there are, so it is the width.
-  private static boolean[][] fold(boolean[][] input, Fold fold) {
-    int height = input[0].length;
-    int width = input.length;
-    return switch (fold) {
-      case XFold(int x) -> {
-        boolean[][] output = new boolean[x][height];
-        for (int i = 1; i <= x && x + i < width; i++) {
-          for (int y = 0; y < height; y++) {
-            output[x - i][y] = input[x - i][y] | input[x + i][y];
-          }
+  /*
+    We keep just the dots, each packed into a long, rather than the whole paper, and run each dot
+    through the whole sequence of folds in turn. A fold along x=n leaves a dot with x < n alone and
+    reflects one with x > n to 2n - x, and likewise for y. Then we sort the results so we can drop
+    the duplicates from dots that landed on top of each other. So the cost is O(dots × folds) plus
+    a sort, however large the coordinates are. A dot that is exactly on a fold line disappears,
+    though the puzzle says that never happens.
+  */
+  static long[] fold(long[] dots, List<Fold> folds) {
+    int n = folds.size();
+    boolean[] alongX = new boolean[n];
+    int[] foldLines = new int[n];
+    for (int i = 0; i < n; i++) {
+      switch (folds.get(i)) {
+        case XFold(int x) -> {
+          alongX[i] = true;
+          foldLines[i] = x;
         }
-        yield output;
+        case YFold(int y) -> foldLines[i] = y;
       }
-      case YFold(int y) -> {
-        boolean[][] output = new boolean[width][y];
-        for (int i = 1; i <= y && y + i < height; i++) {
-          for (int x = 0; x < width; x++) {
-            output[x][y - i] = input[x][y - i] | input[x][y + i];
+    }
+    long[] result = new long[dots.length];
+    int count = 0;
+    dots:
+    for (long dot : dots) {
+      int x = x(dot);
+      int y = y(dot);
+      for (int i = 0; i < n; i++) {
+        int line = foldLines[i];
+        if (alongX[i]) {
+          if (x == line) {
+            continue dots;
+          }
+          if (x > line) {
+            x = line - (x - line);
+          }
+        } else {
+          if (y == line) {
+            continue dots;
+          }
+          if (y > line) {
+            y = line - (y - line);
           }
         }
-        yield output;
       }
-    };
+      result[count++] = pack(x, y);
+    }
+    Arrays.sort(result, 0, count);
+    int distinct = 0;
+    for (int i = 0; i < count; i++) {
+      if (distinct == 0 || result[i] != result[distinct - 1]) {
+        result[distinct++] = result[i];
+      }
+    }
+    return Arrays.copyOf(result, distinct);
   }
 
-  private static int count(boolean[][] grid) {
-    return stream(grid).mapToInt(Booleans::countTrue).sum();
+  static long pack(int x, int y) {
+    return ((long) x << 32) | (y & 0xffff_ffffL);
   }
 
-  private static void show(boolean[][] grid) {
-    int height = grid[0].length;
-    int width = grid.length;
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        System.out.print(grid[x][y] ? '#' : '.');
+  static int x(long dot) {
+    return (int) (dot >> 32);
+  }
+
+  static int y(long dot) {
+    return (int) dot;
+  }
+
+  private static void show(long[] dots) {
+    if (dots.length == 0) {
+      return;
+    }
+    int minX = Math.min(0, Arrays.stream(dots).mapToInt(Puzzle13::x).min().getAsInt());
+    int maxX = Arrays.stream(dots).mapToInt(Puzzle13::x).max().getAsInt();
+    int minY = Math.min(0, Arrays.stream(dots).mapToInt(Puzzle13::y).min().getAsInt());
+    int maxY = Arrays.stream(dots).mapToInt(Puzzle13::y).max().getAsInt();
+    Set<Long> dotSet = Arrays.stream(dots).boxed().collect(toSet());
+    for (int y = minY; y <= maxY; y++) {
+      StringBuilder line = new StringBuilder();
+      for (int x = minX; x <= maxX; x++) {
+        line.append(dotSet.contains(pack(x, y)) ? '#' : '.');
       }
-      System.out.println();
+      System.out.println(line);
     }
   }
-}
\ No newline at end of file
+}
@@ -2,18 +2,22 @@ package advent2021;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
-import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static java.lang.Math.addExact;
+import static java.util.stream.Collectors.joining;
 
+import adventlib.MatrixPower;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.CharStreams;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -53,20 +57,12 @@ public class Puzzle14 {
       String name = entry.getKey();
       try (Reader r = entry.getValue().call()) {
         List<String> lines = CharStreams.readLines(r);
-        String input = lines.get(0);
-        checkArgument(lines.get(1).isEmpty());
-        Pattern rulePattern = Pattern.compile("([A-Z][A-Z]) -> ([A-Z])");
-        ImmutableMap<String, Character> substitutions =
-            lines.stream()
-                .skip(2)
-                .map(rulePattern::matcher)
-                .peek(m -> checkState(m.matches()))
-                .collect(toImmutableMap(m -> m.group(1), m -> m.group(2).charAt(0)));
+        Polymer polymer = Polymer.parse(lines);
 
         System.out.printf(
-            "Result for %s after 10 steps is is %d\n", name, polymerize(input, 10, substitutions));
+            "Result for %s after 10 steps is is %d\n", name, polymer.difference(10));
         System.out.printf(
-            "Result for %s after 40 steps is is %d\n", name, polymerize(input, 40, substitutions));
+            "Result for %s after 40 steps is is %d\n", name, polymer.difference(40));
       }
     }
   }
@@ -76,50 +72,199 @@ public class Puzzle14 {
   // it, and we only need to maintain a count for each of those. At each step, if we have a letter
   // pair AC that gets B inserted into it, and if there are N occurrences of AC, then for the next
   // step we will have N times AB and N times BC.
-  private static long polymerize(String input, int steps, Map<String, Character> substitutions) {
-    char first = input.charAt(0);
-    char last = input.charAt(input.length() - 1);
-    Map<String, Long> pairFrequencies = new LinkedHashMap<>();
-    for (int j = 1; j < input.length(); j++) {
-      String pair = input.substring(j - 1, j + 1);
-      pairFrequencies.put(pair, pairFrequencies.getOrDefault(pair, 0L) + 1);
+  //
+  // The letters that appear are numbered 0 to L-1, and the pair of letters a and b is number
+  // a*L+b, so the counts are a long[] of size L² and a step is a loop over that array into a
+  // second array, with no allocation. The counts roughly double at each step, so after 60 or so
+  // steps they no longer fit in a long. When that happens we switch to BigInteger. The step is a
+  // linear transformation, so we can represent it as a matrix and raise it to the power of the
+  // remaining number of steps, which MatrixPower does in only O(log steps) matrix multiplications.
+  // Even so, the numbers themselves have O(steps) digits, so for really huge step counts we can
+  // only sensibly compute the letter counts modulo some number, which letterCountsMod does.
+  static final class Polymer {
+    private final char[] letters;
+    private final int[] insertLeft; // pair that replaces each pair on the left, or itself
+    private final int[] insertRight; // pair that replaces each pair on the right, or -1
+    private final long[] initial;
+    private final int last;
+
+    private Polymer(char[] letters, int[] insertLeft, int[] insertRight, long[] initial, int last) {
+      this.letters = letters;
+      this.insertLeft = insertLeft;
+      this.insertRight = insertRight;
+      this.initial = initial;
+      this.last = last;
     }
-    for (int i = 0; i < steps; i++) {
-      Map<String, Long> newPairFrequencies = new LinkedHashMap<>();
-      pairFrequencies.forEach(
-          (pair, count) -> {
-            Character insert = substitutions.get(pair);
-            if (insert == null) {
-              // Turns out this doesn't happen, but never mind.
-              newPairFrequencies.put(pair, newPairFrequencies.getOrDefault(pair, 0L) + count);
-            } else {
-              String pair1 = "" + pair.charAt(0) + insert;
-              newPairFrequencies.put(pair1, newPairFrequencies.getOrDefault(pair1, 0L) + count);
-              String pair2 = "" + insert + pair.charAt(1);
-              newPairFrequencies.put(pair2, newPairFrequencies.getOrDefault(pair2, 0L) + count);
+
+    static Polymer parse(List<String> lines) {
+      String input = lines.get(0);
+      checkArgument(!input.isEmpty());
+      checkArgument(lines.get(1).isEmpty());
+      Pattern rulePattern = Pattern.compile("([A-Z][A-Z]) -> ([A-Z])");
+      List<Matcher> rules =
+          lines.stream()
+              .skip(2)
+              .map(rulePattern::matcher)
+              .peek(m -> checkState(m.matches()))
+              .toList();
+
+      int[] index = new int[128];
+      Arrays.fill(index, -1);
+      StringBuilder letters = new StringBuilder();
+      String allLetters =
+          input + rules.stream().map(m -> m.group(1) + m.group(2)).collect(joining());
+      for (char c : allLetters.toCharArray()) {
+        checkArgument(c < 128, "Bad letter %s", c);
+        if (index[c] < 0) {
+          index[c] = letters.length();
+          letters.append(c);
+        }
+      }
+      int size = letters.length();
+      int[] insertLeft = new int[size * size];
+      int[] insertRight = new int[size * size];
+      for (int pair = 0; pair < insertLeft.length; pair++) {
+        insertLeft[pair] = pair;
+        insertRight[pair] = -1;
+      }
+      for (Matcher m : rules) {
+        int a = index[m.group(1).charAt(0)];
+        int b = index[m.group(1).charAt(1)];
+        int c = index[m.group(2).charAt(0)];
+        insertLeft[a * size + b] = a * size + c;
+        insertRight[a * size + b] = c * size + b;
+      }
+      long[] initial = new long[size * size];
+      for (int j = 1; j < input.length(); j++) {
+        initial[index[input.charAt(j - 1)] * size + index[input.charAt(j)]]++;
+      }
+      int last = index[input.charAt(input.length() - 1)];
+      return new Polymer(letters.toString().toCharArray(), insertLeft, insertRight, initial, last);
+    }
+
+    /**
+     * Returns the difference between the counts of the most common and least common letters in the
+     * polymer after the given number of steps.
+     */
+    BigInteger difference(long steps) {
+      List<BigInteger> present =
+          Arrays.stream(letterCounts(steps)).filter(count -> count.signum() > 0).toList();
+      return Collections.max(present).subtract(Collections.min(present));
+    }
+
+    /**
+     * Returns the number of each letter in the polymer after the given number of steps, indexed in
+     * the order the letters first appear in the input.
+     */
+    BigInteger[] letterCounts(long steps) {
+      checkArgument(steps >= 0);
+      int n = initial.length;
+      long[] counts = initial.clone();
+      long[] next = new long[n];
+      long done = 0;
+      try {
+        for (; done < steps; done++) {
+          step(counts, next);
+          long[] t = counts;
+          counts = next;
+          next = t;
+        }
+      } catch (ArithmeticException e) {
+        // The counts as of `done` steps are intact, since the step that overflowed was writing
+        // into the other array.
+        BigInteger[][] power = MatrixPower.power(transition(), steps - done);
+        BigInteger[] bigCounts = new BigInteger[n];
+        for (int i = 0; i < n; i++) {
+          BigInteger sum = BigInteger.ZERO;
+          for (int j = 0; j < n; j++) {
+            if (power[i][j].signum() != 0 && counts[j] != 0) {
+              sum = sum.add(power[i][j].multiply(BigInteger.valueOf(counts[j])));
             }
-          });
-      pairFrequencies = newPairFrequencies;
+          }
+          bigCounts[i] = sum;
+        }
+        return letterCounts(bigCounts);
+      }
+      return letterCounts(
+          Arrays.stream(counts).mapToObj(BigInteger::valueOf).toArray(BigInteger[]::new));
     }
-    Map<Character, Long> letterFrequencies = new LinkedHashMap<>();
-    pairFrequencies.forEach(
-        (pair, count) -> {
-          Character c1 = pair.charAt(0);
-          letterFrequencies.put(c1, letterFrequencies.getOrDefault(c1, 0L) + count);
-          Character c2 = pair.charAt(1);
-          letterFrequencies.put(c2, letterFrequencies.getOrDefault(c2, 0L) + count);
-        });
-    // We've counted every letter twice, once when it was the start of the pair it is in and
-    // once when it was the end, except for the very first and last letters of the string. Those
-    // letters don't change. So we divide all the values by 2 and then add 1 for the first and
-    // last letters.
-    for (Character letter : letterFrequencies.keySet()) {
-      letterFrequencies.put(letter, letterFrequencies.get(letter) / 2);
+
+    /**
+     * Returns the number of each letter in the polymer after the given number of steps, modulo
+     * {@code modulus}. This takes O(log steps) time, so it works for any {@code long} number of
+     * steps.
+     */
+    long[] letterCountsMod(long steps, long modulus) {
+      checkArgument(steps >= 0);
+      int n = initial.length;
+      BigInteger[][] t = transition();
+      long[][] m = new long[n][n];
+      for (int i = 0; i < n; i++) {
+        for (int j = 0; j < n; j++) {
+          m[i][j] = t[i][j].longValueExact();
+        }
+      }
+      long[][] result = MatrixPower.powerMod(m, steps, modulus);
+      int size = letters.length;
+      long[] letterCounts = new long[size];
+      for (int i = 0; i < n; i++) {
+        long pairCount = 0;
+        for (int j = 0; j < n; j++) {
+          pairCount = (pairCount + result[i][j] * (initial[j] % modulus)) % modulus;
+        }
+        letterCounts[i / size] = (letterCounts[i / size] + pairCount) % modulus;
+      }
+      letterCounts[last] = (letterCounts[last] + 1) % modulus;
+      return letterCounts;
+    }
+
+    private void step(long[] from, long[] to) {
+      Arrays.fill(to, 0);
+      for (int pair = 0; pair < from.length; pair++) {
+        long count = from[pair];
+        if (count != 0) {
+          int left = insertLeft[pair];
+          to[left] = addExact(to[left], count);
+          int right = insertRight[pair];
+          if (right >= 0) {
+            to[right] = addExact(to[right], count);
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns the matrix for one step, where entry [i][j] is the number of pairs i that each pair j
+     * produces.
+     */
+    private BigInteger[][] transition() {
+      int n = initial.length;
+      BigInteger[][] m = new BigInteger[n][n];
+      for (int pair = 0; pair < n; pair++) {
+        Arrays.fill(m[pair], BigInteger.ZERO);
+      }
+      for (int pair = 0; pair < n; pair++) {
+        m[insertLeft[pair]][pair] = m[insertLeft[pair]][pair].add(BigInteger.ONE);
+        if (insertRight[pair] >= 0) {
+          m[insertRight[pair]][pair] = m[insertRight[pair]][pair].add(BigInteger.ONE);
+        }
+      }
+      return m;
+    }
+
+    /**
+     * Counts each letter as the first letter of the pairs it starts. That counts every letter in
+     * the polymer except the last, which never changes.
+     */
+    private BigInteger[] letterCounts(BigInteger[] pairCounts) {
+      int size = letters.length;
+      BigInteger[] counts = new BigInteger[size];
+      Arrays.fill(counts, BigInteger.ZERO);
+      for (int pair = 0; pair < pairCounts.length; pair++) {
+        counts[pair / size] = counts[pair / size].add(pairCounts[pair]);
+      }
+      counts[last] = counts[last].add(BigInteger.ONE);
+      return counts;
     }
-    letterFrequencies.put(first, letterFrequencies.get(first) + 1);
-    letterFrequencies.put(last, letterFrequencies.get(last) + 1);
-    long max = Collections.max(letterFrequencies.values());
-    long min = Collections.min(letterFrequencies.values());
-    return max - min;
   }
-}
\ No newline at end of file
+}
@@ -1,21 +1,17 @@
 package advent2021;
 
-import static java.util.stream.Collectors.joining;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.Math.multiplyExact;
 
 import adventlib.CharGrid;
-import adventlib.CharGrid.Coord;
-import adventlib.Dir;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.CharStreams;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.concurrent.Callable;
 
 /**
@@ -49,60 +45,122 @@ public class Puzzle15 {
         List<String> lines = CharStreams.readLines(r);
         CharGrid grid = new CharGrid(lines);
         System.out.printf(
-            "For %s small grid, lowest total risk is %d\n", name, computeBestCost(grid));
-        CharGrid expandedGrid = expandedGrid(lines);
+            "For %s small grid, lowest total risk is %d\n",
+            name, lowestTotalRisk(new TiledCave(grid, 1)));
         System.out.printf(
-            "For %s large grid, lowest total risk is %d\n", name, computeBestCost(expandedGrid));
+            "For %s large grid, lowest total risk is %d\n",
+            name, lowestTotalRisk(new TiledCave(grid, 5)));
       }
     }
   }
 
-  private static int computeBestCost(CharGrid grid) {
-    Map<Coord, Integer> bestCost = new LinkedHashMap<>();
-    Coord origin = new Coord(0, 0);
-    record CoordCost(Coord coord, int cost) {}
-    PriorityQueue<CoordCost> toVisit = new PriorityQueue<>(Comparator.comparing(CoordCost::cost));
-    toVisit.add(new CoordCost(origin, 0));
-    while (!toVisit.isEmpty()) {
-      CoordCost coordCost = toVisit.remove();
-      if (coordCost.cost < bestCost.getOrDefault(coordCost.coord, Integer.MAX_VALUE)) {
-        bestCost.put(coordCost.coord, coordCost.cost);
-        for (Dir dir : Dir.NEWS) {
-          Coord next = dir.move(coordCost.coord);
-          if (grid.valid(next)) {
-            int nextCost = coordCost.cost + grid.get(next) - '0';
-            toVisit.add(new CoordCost(next, nextCost));
-          }
+  /**
+   * The cave made by repeating the original grid {@code factor} times in each direction, adding 1
+   * to the risks (and wrapping 9 round to 1) for each tile to the right or down. The risk at any
+   * position is computed from the original grid when needed, so the copies are never stored.
+   */
+  static final class TiledCave {
+    private final byte[] tile;
+    private final int tileHeight;
+    private final int tileWidth;
+    private final int height;
+    private final int width;
+
+    TiledCave(CharGrid grid, int factor) {
+      checkArgument(factor > 0);
+      this.tileHeight = grid.height();
+      this.tileWidth = grid.width();
+      this.height = multiplyExact(tileHeight, factor);
+      this.width = multiplyExact(tileWidth, factor);
+      checkArgument(
+          (long) height * width <= Integer.MAX_VALUE, "Cave too big: %s×%s", height, width);
+      this.tile = new byte[tileHeight * tileWidth];
+      for (int line = 0; line < tileHeight; line++) {
+        for (int col = 0; col < tileWidth; col++) {
+          int risk = grid.get(line, col) - '0';
+          checkArgument(risk >= 1 && risk <= 9, "Bad risk at %s,%s", line, col);
+          tile[line * tileWidth + col] = (byte) risk;
         }
       }
     }
-    return bestCost.get(new Coord(grid.height() - 1, grid.width() - 1));
-  }
 
-  private static CharGrid expandedGrid(List<String> lines) {
-    List<String> newLines = new ArrayList<>();
-    for (String line : lines) {
-      newLines.add(expandHorizontally(line));
+    int height() {
+      return height;
     }
-    for (int i = 0; i < 4 * lines.size(); i++) {
-      newLines.add(increment(newLines.get(i)));
+
+    int width() {
+      return width;
     }
-    return new CharGrid(newLines);
-  }
 
-  private static String expandHorizontally(String line) {
-    StringBuilder newLine = new StringBuilder(line);
-    for (int i = 0; i < 4 * line.length(); i++) {
-      newLine.append(increment(newLine.charAt(i)));
+    int risk(int line, int col) {
+      int base = tile[(line % tileHeight) * tileWidth + col % tileWidth];
+      return (base - 1 + line / tileHeight + col / tileWidth) % 9 + 1;
     }
-    return newLine.toString();
   }
 
-  private static String increment(String line) {
-    return line.chars().mapToObj(c -> Character.toString(increment((char) c))).collect(joining());
-  }
+  /*
+    Dijkstra's algorithm, from the top left to the bottom right. Every step costs between 1 and 9,
+    which means that when we are visiting positions with cost c, any position we add to the queue
+    has a cost between c+1 and c+9. So instead of a general priority queue we can have 10 buckets,
+    where bucket i % 10 holds the positions with cost i, and visit them in order of cost by cycling
+    round the buckets. (This is known as Dial's algorithm.) Positions are numbered line * width +
+    col and the best costs are an int[] indexed by those numbers. A position can be added to a
+    bucket more than once if we find a cheaper route to it; we just skip the entries whose cost is
+    no longer the best.
+  */
+  private static final int[] LINE_DELTAS = {-1, 0, 0, 1};
+  private static final int[] COL_DELTAS = {0, 1, -1, 0};
 
-  private static char increment(char c) {
-    return (c == '9') ? '1' : (char) (c + 1);
+  static int lowestTotalRisk(TiledCave cave) {
+    int height = cave.height();
+    int width = cave.width();
+    int target = height * width - 1;
+    int[] best = new int[height * width];
+    Arrays.fill(best, Integer.MAX_VALUE);
+    int[][] buckets = new int[10][16];
+    int[] bucketSizes = new int[10];
+    best[0] = 0;
+    buckets[0][bucketSizes[0]++] = 0;
+    int emptyBuckets = 0;
+    for (int cost = 0; emptyBuckets < 10; cost++) {
+      int b = cost % 10;
+      if (bucketSizes[b] == 0) {
+        emptyBuckets++;
+        continue;
+      }
+      emptyBuckets = 0;
+      // Nothing is added to the bucket we are emptying, since every step costs at least 1.
+      int[] bucket = buckets[b];
+      for (int k = 0; k < bucketSizes[b]; k++) {
+        int pos = bucket[k];
+        if (best[pos] != cost) {
+          continue;
+        }
+        if (pos == target) {
+          return cost;
+        }
+        int line = pos / width;
+        int col = pos % width;
+        for (int d = 0; d < 4; d++) {
+          int nextLine = line + LINE_DELTAS[d];
+          int nextCol = col + COL_DELTAS[d];
+          if (nextLine < 0 || nextLine >= height || nextCol < 0 || nextCol >= width) {
+            continue;
+          }
+          int next = nextLine * width + nextCol;
+          int nextCost = cost + cave.risk(nextLine, nextCol);
+          if (nextCost < best[next]) {
+            best[next] = nextCost;
+            int nb = nextCost % 10;
+            if (bucketSizes[nb] == buckets[nb].length) {
+              buckets[nb] = Arrays.copyOf(buckets[nb], bucketSizes[nb] * 2);
+            }
+            buckets[nb][bucketSizes[nb]++] = next;
+          }
+        }
+      }
+      bucketSizes[b] = 0;
+    }
+    throw new IllegalStateException("Bottom right not reachable");
   }
-}
\ No newline at end of file
+}
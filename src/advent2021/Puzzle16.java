@@ -1,13 +1,16 @@
 package advent2021;
 
+import static com.google.common.base.Preconditions.checkPositionIndexes;
 import static com.google.common.base.Preconditions.checkState;
 import static java.lang.Integer.signum;
+import static java.lang.Math.addExact;
+import static java.lang.Math.multiplyExact;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
 
 import com.google.common.collect.ImmutableList;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.InputStream;
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.function.BinaryOperator;
 
 /**
@@ -15,14 +18,17 @@ import java.util.function.BinaryOperator;
  */
 public class Puzzle16 {
   public static void main(String[] args) throws Exception {
-    try (Reader r = new InputStreamReader(Puzzle16.class.getResourceAsStream("puzzle16.txt"))) {
-      String input = new BufferedReader(r).readLine();
-      BitStream stream = BitStream.ofHex(input);
-      Packet packet = stream.parsePacket();
-      int versionSum = packet.versionSum();
-      System.out.printf("version sum %d\n", versionSum);
-      System.out.printf("value %d\n", packet.value());
+    byte[] input;
+    try (InputStream in = Puzzle16.class.getResourceAsStream("puzzle16.txt")) {
+      input = in.readAllBytes();
     }
+    int end = input.length;
+    while (end > 0 && Character.isWhitespace(input[end - 1])) {
+      end--;
+    }
+    Evaluation evaluation = BitStream.ofHex(input, 0, end).evaluate();
+    System.out.printf("version sum %d\n", evaluation.versionSum());
+    System.out.printf("value %d\n", evaluation.exactValue());
   }
 
   sealed interface Packet {
@@ -74,36 +80,72 @@ public class Puzzle16 {
     }
   }
 
+  /**
+   * The result of {@link BitStream#evaluate}. If the value fits in a {@code long} then it is
+   * {@code value} and {@code bigValue} is null; otherwise it is {@code bigValue}.
+   */
+  record Evaluation(long versionSum, long value, BigInteger bigValue) {
+    BigInteger exactValue() {
+      return bigValue != null ? bigValue : BigInteger.valueOf(value);
+    }
+  }
+
+  /**
+   * Reads bits directly from the ASCII bytes of a hex string. Each read takes bits from the hex
+   * digit at position {@code bitPos / 4}, so the string is never converted or copied.
+   */
   static class BitStream {
-    private final BigInteger bits;
-    private int bitIndex;
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+      Arrays.fill(HEX_VALUES, (byte) -1);
+      for (int i = 0; i < 16; i++) {
+        HEX_VALUES[Character.forDigit(i, 16)] = (byte) i;
+        HEX_VALUES[Character.toUpperCase(Character.forDigit(i, 16))] = (byte) i;
+      }
+    }
 
-    private BitStream(BigInteger bits, int bitIndex) {
-      this.bits = bits;
-      this.bitIndex = bitIndex;
+    private final byte[] hex;
+    private final int start;
+    private final long bitEnd;
+    private long bitPos;
+
+    private BitStream(byte[] hex, int start, int end) {
+      this.hex = hex;
+      this.start = start;
+      this.bitEnd = (long) (end - start) * 4;
     }
 
     static BitStream ofHex(String hex) {
-      BigInteger bits = new BigInteger(hex, 16);
-      int bitIndex = hex.length() * 4 - 1;
-      return new BitStream(bits, bitIndex);
+      byte[] bytes = hex.getBytes(ISO_8859_1);
+      return ofHex(bytes, 0, bytes.length);
+    }
+
+    static BitStream ofHex(byte[] hex, int start, int end) {
+      checkPositionIndexes(start, end, hex.length);
+      return new BitStream(hex, start, end);
     }
 
     boolean eof() {
-      return bitIndex < 0;
+      return bitPos >= bitEnd;
     }
 
     private boolean readBit() {
-      checkState(bitIndex >= 0, "EOF");
-      boolean result = bits.testBit(bitIndex);
-      --bitIndex;
-      return result;
+      return readBits(1) != 0;
     }
 
     private int readBits(int n) {
       int result = 0;
-      for (int i = 0; i < n; i++) {
-        result = (result << 1) | (readBit() ? 1 : 0);
+      while (n > 0) {
+        checkState(bitPos < bitEnd, "EOF");
+        byte c = hex[start + (int) (bitPos >> 2)];
+        int nybble = c >= 0 ? HEX_VALUES[c] : -1;
+        checkState(nybble >= 0, "Bad hex digit %s", (char) c);
+        int available = 4 - (int) (bitPos & 3);
+        int take = Math.min(available, n);
+        result = (result << take) | ((nybble >> (available - take)) & ((1 << take) - 1));
+        n -= take;
+        bitPos += take;
       }
       return result;
     }
@@ -139,14 +181,152 @@ public class Puzzle16 {
       } else {
         // length type id 0, next 15 bits indicate size of subpacket bits
         int size = readBits(15);
-        checkState(size <= bitIndex);
-        int stop = bitIndex - size;
-        while (bitIndex > stop) {
+        checkState(size <= bitEnd - bitPos);
+        long stop = bitPos + size;
+        while (bitPos < stop) {
           subpackets.add(parsePacket());
         }
-        checkState(bitIndex == stop);
+        checkState(bitPos == stop);
       }
       return new Operator(version, type, subpackets.build());
     }
+
+    /*
+      Reads one packet and computes its version sum and value in a single pass, without building
+      Packet objects. Each operator that is still waiting for subpackets has a frame in a set of
+      parallel arrays, which act as an explicit stack. So deeply nested operators can't overflow
+      the Java stack. A frame holds the value of the subpackets so far, combined with the operator.
+      That value is a long, unless it has overflowed, in which case it is a BigInteger. We switch
+      back to a long if a later operation (for example min or a comparison) makes the value small
+      again. When a frame has had all its subpackets, its value is combined into the frame below,
+      and so on.
+    */
+    Evaluation evaluate() {
+      long versionSum = 0;
+      int depth = 0;
+      int[] types = new int[16];
+      boolean[] byCount = new boolean[16];
+      long[] remaining = new long[16]; // subpackets left, or bit position where subpackets stop
+      int[] children = new int[16];
+      long[] values = new long[16];
+      BigInteger[] bigValues = new BigInteger[16];
+      while (true) {
+        versionSum += readBits(3);
+        int type = readBits(3);
+        if (type != 4) {
+          if (depth == types.length) {
+            int newLength = depth * 2;
+            types = Arrays.copyOf(types, newLength);
+            byCount = Arrays.copyOf(byCount, newLength);
+            remaining = Arrays.copyOf(remaining, newLength);
+            children = Arrays.copyOf(children, newLength);
+            values = Arrays.copyOf(values, newLength);
+            bigValues = Arrays.copyOf(bigValues, newLength);
+          }
+          types[depth] = type;
+          byCount[depth] = readBit();
+          if (byCount[depth]) {
+            remaining[depth] = readBits(11);
+            checkState(remaining[depth] > 0, "Operator with no subpackets");
+          } else {
+            int size = readBits(15);
+            checkState(size > 0, "Operator with no subpackets");
+            checkState(size <= bitEnd - bitPos);
+            remaining[depth] = bitPos + size;
+          }
+          children[depth] = 0;
+          bigValues[depth] = null;
+          depth++;
+          continue;
+        }
+
+        // A literal.
+        long value = 0;
+        BigInteger bigValue = null;
+        boolean more;
+        do {
+          more = readBit();
+          int nybble = readBits(4);
+          if (bigValue == null && (value >>> 59) == 0) {
+            value = (value << 4) | nybble;
+          } else {
+            if (bigValue == null) {
+              bigValue = BigInteger.valueOf(value);
+            }
+            bigValue = bigValue.shiftLeft(4).or(BigInteger.valueOf(nybble));
+          }
+        } while (more);
+
+        // Pass the value down through the frames that are now complete.
+        while (true) {
+          if (depth == 0) {
+            return new Evaluation(versionSum, value, bigValue);
+          }
+          int f = depth - 1;
+          if (children[f] == 0) {
+            values[f] = value;
+            bigValues[f] = bigValue;
+          } else if (bigValues[f] == null && bigValue == null) {
+            try {
+              values[f] = combine(types[f], values[f], value);
+            } catch (ArithmeticException e) {
+              bigValues[f] =
+                  combine(types[f], BigInteger.valueOf(values[f]), BigInteger.valueOf(value));
+            }
+          } else {
+            bigValues[f] =
+                combine(
+                    types[f],
+                    bigValues[f] != null ? bigValues[f] : BigInteger.valueOf(values[f]),
+                    bigValue != null ? bigValue : BigInteger.valueOf(value));
+          }
+          if (bigValues[f] != null && bigValues[f].bitLength() < 64) {
+            values[f] = bigValues[f].longValue();
+            bigValues[f] = null;
+          }
+          children[f]++;
+          boolean done;
+          if (byCount[f]) {
+            done = --remaining[f] == 0;
+          } else {
+            checkState(bitPos <= remaining[f], "Subpackets overran their length");
+            done = bitPos == remaining[f];
+          }
+          if (!done) {
+            break;
+          }
+          value = values[f];
+          bigValue = bigValues[f];
+          bigValues[f] = null;
+          depth--;
+        }
+      }
+    }
+
+    private static long combine(int type, long a, long b) {
+      return switch (type) {
+        case 0 -> addExact(a, b);
+        case 1 -> multiplyExact(a, b);
+        case 2 -> Math.min(a, b);
+        case 3 -> Math.max(a, b);
+        case 5 -> a > b ? 1 : 0;
+        case 6 -> a < b ? 1 : 0;
+        case 7 -> a == b ? 1 : 0;
+        default -> throw new AssertionError(type);
+      };
+    }
+
+    private static BigInteger combine(int type, BigInteger a, BigInteger b) {
+      return switch (type) {
+        case 0 -> a.add(b);
+        case 1 -> a.multiply(b);
+        case 2 -> a.min(b);
+        case 3 -> a.max(b);
+        case 5 -> a.compareTo(b) > 0 ? BigInteger.ONE : BigInteger.ZERO;
+        case 6 -> a.compareTo(b) < 0 ? BigInteger.ONE : BigInteger.ZERO;
+        case 7 -> a.equals(b) ? BigInteger.ONE : BigInteger.ZERO;
+        default -> throw new AssertionError(type);
+      };
+    }
   }
-}
\ No newline at end of file
+}
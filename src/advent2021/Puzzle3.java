@@ -1,7 +1,7 @@
 package advent2021;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
-import static com.google.common.collect.Iterables.getOnlyElement;
 import static java.lang.Math.multiplyExact;
 
 import com.google.common.collect.ImmutableMap;
@@ -9,7 +9,7 @@ import com.google.common.io.CharStreams;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -46,61 +46,86 @@ public class Puzzle3 {
         List<String> lines = CharStreams.readLines(r);
         int nBits = lines.get(0).length();
         checkState(lines.stream().allMatch(line -> line.length() == nBits));
-        checkState(nBits < 32);
-        List<Integer> numbers = lines.stream().map(line -> Integer.valueOf(line, 2)).toList();
+        checkState(nBits < 64);
+        long[] numbers = lines.stream().mapToLong(line -> Long.parseLong(line, 2)).toArray();
 
-        var part1 = part1(numbers, nBits);
+        long[] part1 = part1(numbers, nBits);
         System.out.printf(
             "For %s, gamma %d, epsilon %d, product %d\n",
-            name, part1.get(0), part1.get(1), multiplyExact(part1.get(0), part1.get(1)));
+            name, part1[0], part1[1], multiplyExact(part1[0], part1[1]));
 
-        var part2 = part2(numbers, nBits);
+        Arrays.sort(numbers);
+        long oxygen = rating(numbers, nBits, true);
+        long co2 = rating(numbers, nBits, false);
         System.out.printf(
             "For %s, oxygen %d, CO₂ scrubber %d, product %d\n",
-            name, part2.get(0), part2.get(1), multiplyExact(part2.get(0), part2.get(1)));
+            name, oxygen, co2, multiplyExact(oxygen, co2));
       }
     }
   }
 
-  private static List<Integer> part1(List<Integer> numbers, int nBits) {
-    int gamma = 0; // more common bitmask
-    int epsilon = 0; // less common bitmask
-    for (int bitmask = 1 << (nBits - 1); bitmask != 0; bitmask >>= 1) {
-      if (moreZeroes(numbers, bitmask)) {
-        epsilon |= bitmask;
+  private static long[] part1(long[] numbers, int nBits) {
+    int[] ones = new int[nBits];
+    for (long n : numbers) {
+      for (long rest = n; rest != 0; rest &= rest - 1) {
+        ones[Long.numberOfTrailingZeros(rest)]++;
+      }
+    }
+    long gamma = 0; // more common bitmask
+    long epsilon = 0; // less common bitmask
+    for (int bit = 0; bit < nBits; bit++) {
+      if ((numbers.length - ones[bit]) * 2L > numbers.length) {
+        epsilon |= 1L << bit;
       } else {
-        gamma |= bitmask;
+        gamma |= 1L << bit;
       }
     }
-    return List.of(gamma, epsilon);
+    return new long[] {gamma, epsilon};
   }
 
-  private static List<Integer> part2(List<Integer> numbers, int nBits) {
-    List<Integer> results = new ArrayList<>();
-
-    // The logic here is kind of tricky. Originally I wrote both parts separately, then boiled it
-    // down to this. It hinges on whether the number of 0 bits is strictly greater than the number
-    // of 1 bits. For the "oxygen generator", we will then retain 0 bits. For the "CO2 scrubber", we
-    // will retain 1 bits. That corresponds to retaining 0 when "more zeroes" is the same as
-    // "oxygen" and 1 bits otherwise.
-    for (boolean oxygen : new boolean[] {true, false}) {
-      var currentNumbers = numbers;
-
-      for (int bit = nBits - 1; bit >= 0 && currentNumbers.size() > 1; bit--) {
-        int bitmask = 1 << bit;
-        int mask = (moreZeroes(currentNumbers, bitmask) == oxygen) ? 0 : bitmask;
-        currentNumbers = currentNumbers.stream().filter(n -> (n & bitmask) == mask).toList();
-        if (currentNumbers.size() == 1) {
-          break;
-        }
+  /**
+   * Returns the oxygen generator or CO₂ scrubber rating, given the numbers in sorted order.
+   *
+   * <p>The logic here is kind of tricky. It hinges on whether the number of 0 bits is strictly
+   * greater than the number of 1 bits. For the "oxygen generator", we will then retain 0 bits. For
+   * the "CO2 scrubber", we will retain 1 bits. That corresponds to retaining 0 when "more zeroes"
+   * is the same as "oxygen" and 1 bits otherwise.
+   *
+   * <p>Because the numbers are sorted, the ones that are still retained after looking at the top k
+   * bits all share those bits, so they form a contiguous range of the array. Within that range, the
+   * ones with 0 at the next bit come before the ones with 1, so a binary search finds how many
+   * there are of each, and the retained range shrinks to one side or the other. That means no
+   * copying or recounting, and the cost after sorting is O(bits × log n).
+   */
+  static long rating(long[] sorted, int nBits, boolean oxygen) {
+    checkArgument(sorted.length > 0);
+    int lo = 0;
+    int hi = sorted.length;
+    for (int bit = nBits - 1; bit >= 0 && hi - lo > 1; bit--) {
+      long bitmask = 1L << bit;
+      int split = firstWithBit(sorted, lo, hi, bitmask);
+      boolean moreZeroes = (split - lo) * 2L > hi - lo;
+      if (moreZeroes == oxygen) {
+        hi = split;
+      } else {
+        lo = split;
       }
-      results.add(getOnlyElement(currentNumbers));
+      checkState(hi > lo, "No numbers left at bit %s", bit);
     }
-    return results;
+    // If there is more than one number left, they are all the same.
+    return sorted[lo];
   }
 
-  private static boolean moreZeroes(List<Integer> numbers, int bitmask) {
-    long zeroes = numbers.stream().filter(n -> (n & bitmask) == 0).count();
-    return zeroes * 2 > numbers.size();
+  /** Returns the first index in {@code [lo, hi)} whose number has the given bit set, or hi. */
+  private static int firstWithBit(long[] sorted, int lo, int hi, long bitmask) {
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if ((sorted[mid] & bitmask) == 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
   }
-}
\ No newline at end of file
+}
@@ -1,22 +1,19 @@
 package advent2021;
 
-import static com.google.common.collect.Iterables.getOnlyElement;
-import static java.util.stream.Collectors.joining;
-import static java.util.stream.Collectors.toCollection;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 
-import com.google.common.base.Splitter;
+import adventlib.NumberScanner;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.CharStreams;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.concurrent.Callable;
-import java.util.regex.Pattern;
-import java.util.stream.IntStream;
 
 /**
  * @author Éamonn McManus
@@ -55,136 +52,87 @@ public class Puzzle4 {
       String name = entry.getKey();
       try (Reader r = entry.getValue().call()) {
         List<String> lines = CharStreams.readLines(r);
-        List<Integer> calls =
-            Splitter.on(',').splitToStream(lines.get(0)).map(Integer::valueOf).toList();
-        part1(name, calls, lines);
-        part2(name, calls, lines);
+        int[] calls = NumberScanner.ints(lines.get(0));
+        int[] cells = NumberScanner.ints(String.join("\n", lines.subList(1, lines.size())));
+        List<Win> wins = play(cells, calls);
+        checkState(!wins.isEmpty(), "No board wins");
+        System.out.printf("Part 1 result for %s is %d\n", name, wins.getFirst().score());
+        System.out.printf("Part 2 result for %s is %d\n", name, wins.getLast().score());
       }
     }
   }
 
-  // I originally wrote an overcomplicated thing with bitmasks and so on, and it didn't work, so I
-  // dumped it in favour of this naive solution. Numbers are removed from boards as they are called
-  // by setting them to null. Checking for wins happens with nested for-loops.
+  // Each board has a 25-bit mask of marked cells, and there is an index from each number to the
+  // cells where it appears, so a call only touches those cells. After marking a cell, we only need
+  // to check its own row and column, each of which is a single mask comparison.
 
-  private static void part1(String name, List<Integer> calls, List<String> lines) {
-    List<Board> boards = parseBoards(lines);
-    Board winner = null;
-    int lastCall = -1;
-    calls:
-    for (var call : calls) {
-      for (var board : boards) {
-        board.remove(call);
-        if (board.wins()) {
-          lastCall = call;
-          winner = board;
-          break calls;
-        }
+  /** A board winning: which board, on which call, and its score at that point. */
+  record Win(int board, int call, long score) {}
+
+  private static final int[] ROW_MASKS = new int[5];
+  private static final int[] COL_MASKS = new int[5];
+
+  static {
+    for (int i = 0; i < 5; i++) {
+      for (int j = 0; j < 5; j++) {
+        ROW_MASKS[i] |= 1 << (i * 5 + j);
+        COL_MASKS[j] |= 1 << (i * 5 + j);
       }
     }
-    System.out.printf("Part 1 result for %s is %d\n", name, winner.sum() * lastCall);
   }
 
-  private static void part2(String name, List<Integer> calls, List<String> lines) {
-    List<Board> boards = new ArrayList<>(parseBoards(lines));
-    int lastCall = -1;
-    calls:
-    for (var call : calls) {
-      lastCall = call;
-      for (int i = 0; i < boards.size(); i++) {
-        var board = boards.get(i);
-        board.remove(call);
-        if (board.wins()) {
-          if (boards.size() > 1) {
-            boards.remove(i);
-            i--;
-          } else {
-            break calls;
-          }
+  /**
+   * Plays bingo with the boards whose cells are given in {@code cells}, 25 per board in row order,
+   * and returns the wins in the order they happen. Each board wins at most once.
+   */
+  static List<Win> play(int[] cells, int[] calls) {
+    checkArgument(cells.length % 25 == 0, "Cell count %s is not a multiple of 25", cells.length);
+    int boardCount = cells.length / 25;
+    Map<Integer, int[]> cellsByNumber = index(cells);
+    int[] marks = new int[boardCount];
+    long[] unmarkedSums = new long[boardCount];
+    for (int i = 0; i < cells.length; i++) {
+      unmarkedSums[i / 25] += cells[i];
+    }
+    boolean[] won = new boolean[boardCount];
+    List<Win> wins = new ArrayList<>();
+    for (int call : calls) {
+      for (int cell : cellsByNumber.getOrDefault(call, NO_CELLS)) {
+        int board = cell / 25;
+        int bit = 1 << (cell % 25);
+        if (won[board] || (marks[board] & bit) != 0) {
+          continue;
+        }
+        int mask = marks[board] |= bit;
+        unmarkedSums[board] -= call;
+        int row = ROW_MASKS[cell % 25 / 5];
+        int col = COL_MASKS[cell % 5];
+        if ((mask & row) == row || (mask & col) == col) {
+          won[board] = true;
+          wins.add(new Win(board, call, unmarkedSums[board] * call));
         }
       }
     }
-    System.out.printf(
-        "Part 2 result for %s is %d\n", name, getOnlyElement(boards).sum() * lastCall);
+    return wins;
   }
 
-  private static class Board {
-    static final Pattern SPACE = Pattern.compile("\\s+");
-
-    private final List<Integer> numbers;
+  private static final int[] NO_CELLS = {};
 
-    Board(List<Integer> numbers) {
-      this.numbers = numbers;
+  /** Returns a map from each number to the indexes of the cells that contain it. */
+  private static Map<Integer, int[]> index(int[] cells) {
+    Map<Integer, Integer> counts = new HashMap<>();
+    for (int number : cells) {
+      counts.merge(number, 1, Integer::sum);
     }
-
-    static Board parse(List<String> strings) {
-      var numbers =
-          strings.stream()
-              .flatMap(
-                  line ->
-                      Splitter.on(SPACE)
-                          .omitEmptyStrings()
-                          .splitToStream(line)
-                          .map(Integer::valueOf))
-              .collect(toCollection(ArrayList::new));
-      return new Board(numbers);
-    }
-
-    void remove(int i) {
-      int index = numbers.indexOf(i);
-      if (index >= 0) {
-        numbers.set(index, null);
-      }
+    Map<Integer, int[]> cellsByNumber = new HashMap<>();
+    for (var entry : counts.entrySet()) {
+      cellsByNumber.put(entry.getKey(), new int[entry.getValue()]);
     }
-
-    int sum() {
-      return numbers.stream().filter(Objects::nonNull).reduce(0, Integer::sum);
+    Map<Integer, Integer> filled = new HashMap<>();
+    for (int i = 0; i < cells.length; i++) {
+      int number = cells[i];
+      cellsByNumber.get(number)[filled.merge(number, 1, Integer::sum) - 1] = i;
     }
-
-    boolean wins() {
-      for (int i = 0; i < 25; i += 5) {
-        boolean allNull = true;
-        for (int j = i; j < i + 5; j++) {
-          if (numbers.get(j) != null) {
-            allNull = false;
-            break;
-          }
-        }
-        if (allNull) {
-          return true;
-        }
-      }
-      for (int i = 0; i < 5; i++) {
-        boolean allNull = true;
-        for (int j = i; j < 25; j += 5) {
-          if (numbers.get(j) != null) {
-            allNull = false;
-            break;
-          }
-        }
-        if (allNull) {
-          return true;
-        }
-      }
-      return false;
-    }
-
-    @Override
-    public String toString() {
-      return IntStream.iterate(0, i -> i < 25, i -> i + 5)
-          .mapToObj(i -> numbers.subList(i, i + 5))
-          .map(
-              line ->
-                  line.stream()
-                      .map(i -> String.format("%2s", (i == null) ? "--" : Integer.toString(i)))
-                      .collect(joining(" ")))
-          .collect(joining("\n"));
-    }
-  }
-
-  private static List<Board> parseBoards(List<String> lines) {
-    return IntStream.iterate(1, i -> i < lines.size(), i -> i + 6)
-        .mapToObj(i -> Board.parse(lines.subList(i + 1, i + 6)))
-        .toList();
+    return cellsByNumber;
   }
-}
\ No newline at end of file
+}
@@ -1,20 +1,28 @@
 package advent2021;
 
 import static com.google.common.base.Preconditions.checkState;
-import static java.lang.Integer.signum;
-import static java.util.Arrays.stream;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 
+import adventlib.NumberScanner;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.CharStreams;
-import com.google.common.primitives.Ints;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
-import java.util.regex.Pattern;
-import java.util.stream.IntStream;
+import java.util.function.UnaryOperator;
 
 /**
  * @author Éamonn McManus
@@ -45,55 +53,299 @@ public class Puzzle5 {
       try (Reader r = entry.getValue().call()) {
         List<String> inputLines = CharStreams.readLines(r);
         List<Line> lines = parseLines(inputLines);
-        int[][] orthogonalCounts = new int[1000][1000];
-        int[][] allCounts = new int[1000][1000];
-        for (Line line : lines) {
-          int deltaX = signum(line.end.x - line.start.x);
-          int deltaY = signum(line.end.y - line.start.y);
-          boolean orthogonal = deltaX == 0 || deltaY == 0;
-          int x = line.start.x;
-          int y = line.start.y;
-          while (true) {
-            allCounts[y][x]++;
-            if (orthogonal) {
-              orthogonalCounts[y][x]++;
-            }
-            if (x == line.end.x && y == line.end.y) {
-              break;
+        System.out.printf("Part 1 count for %s is %d\n", name, countOverlaps(lines, false));
+        System.out.printf("Part 2 count for %s is %d\n", name, countOverlaps(lines, true));
+      }
+    }
+  }
+
+  // Overlaps are counted without a grid, so the cost depends on the number of lines and crossings
+  // rather than on the area they cover.
+  //
+  // Every line has one of four orientations, and lines of the same orientation can only meet by
+  // overlapping along a common line. So for each orientation we group the lines by the line they
+  // lie on, and merge their extents along it. That gives the stretches covered at least once, and
+  // the stretches covered at least twice. The points in the second set all count.
+  //
+  // Lines of different orientations can only meet at single points. For each pair of
+  // orientations, a shear transformation makes one of them horizontal and the other vertical, and
+  // then a sweep finds the points where they cross. All those points count too, but a point might
+  // also be inside a stretch that was already counted, so we adjust for that.
+
+  enum Orientation {
+    HORIZONTAL,
+    VERTICAL,
+    DIAGONAL, // x - y is constant
+    ANTIDIAGONAL; // x + y is constant
+
+    static Orientation of(Line line) {
+      int dx = line.end.x - line.start.x;
+      int dy = line.end.y - line.start.y;
+      if (dy == 0) {
+        return HORIZONTAL;
+      } else if (dx == 0) {
+        return VERTICAL;
+      } else if (dx == dy) {
+        return DIAGONAL;
+      } else if (dx == -dy) {
+        return ANTIDIAGONAL;
+      }
+      throw new IllegalArgumentException("Line is not at a multiple of 45°: " + line);
+    }
+
+    /** Identifies the line through (x,y) with this orientation. */
+    long key(long x, long y) {
+      return switch (this) {
+        case HORIZONTAL -> y;
+        case VERTICAL -> x;
+        case DIAGONAL -> x - y;
+        case ANTIDIAGONAL -> x + y;
+      };
+    }
+
+    /** The position of (x,y) along the line with this orientation that goes through it. */
+    long along(long x, long y) {
+      return this == VERTICAL ? y : x;
+    }
+  }
+
+  /** A stretch from {@code lo} to {@code hi} inclusive along the line identified by {@code key}. */
+  record Span(long key, long lo, long hi) {}
+
+  /** The merged extents of all the lines of one orientation. */
+  private record Coverage(List<Span> once, Map<Long, long[]> twice, long twiceCount) {
+    /** Returns true if the point at {@code along} on line {@code key} is covered twice. */
+    boolean coveredTwice(long key, long along) {
+      long[] bounds = twice.get(key);
+      if (bounds == null) {
+        return false;
+      }
+      // bounds is lo0, hi0, lo1, hi1, ... in increasing order.
+      int i = Arrays.binarySearch(bounds, along);
+      return i >= 0 || (-i - 1) % 2 == 1;
+    }
+  }
+
+  static long countOverlaps(List<Line> lines, boolean diagonals) {
+    Map<Orientation, List<Span>> spans = new EnumMap<>(Orientation.class);
+    for (Line line : lines) {
+      Orientation o = Orientation.of(line);
+      if (!diagonals && (o == Orientation.DIAGONAL || o == Orientation.ANTIDIAGONAL)) {
+        continue;
+      }
+      long key = o.key(line.start.x, line.start.y);
+      long a = o.along(line.start.x, line.start.y);
+      long b = o.along(line.end.x, line.end.y);
+      spans.computeIfAbsent(o, k -> new ArrayList<>()).add(new Span(key, min(a, b), max(a, b)));
+    }
+    Map<Orientation, Coverage> coverages = new EnumMap<>(Orientation.class);
+    long count = 0;
+    for (var entry : spans.entrySet()) {
+      Coverage coverage = coverage(entry.getValue());
+      coverages.put(entry.getKey(), coverage);
+      count += coverage.twiceCount;
+    }
+
+    Set<Long> crossings = new HashSet<>();
+    List<Orientation> present = List.copyOf(coverages.keySet());
+    for (int i = 0; i < present.size(); i++) {
+      for (int j = i + 1; j < present.size(); j++) {
+        crossings(present.get(i), present.get(j), coverages, crossings);
+      }
+    }
+    for (long point : crossings) {
+      int x = (int) (point >> 32);
+      int y = (int) point;
+      int alreadyCounted = 0;
+      for (var entry : coverages.entrySet()) {
+        Orientation o = entry.getKey();
+        if (entry.getValue().coveredTwice(o.key(x, y), o.along(x, y))) {
+          alreadyCounted++;
+        }
+      }
+      count += 1 - alreadyCounted;
+    }
+    return count;
+  }
+
+  /**
+   * Merges spans that lie on the same line, using a sweep over their start and end events. The
+   * result is the stretches covered at least once and the stretches covered at least twice.
+   */
+  private static Coverage coverage(List<Span> spans) {
+    Map<Long, List<Span>> byKey = new HashMap<>();
+    for (Span span : spans) {
+      byKey.computeIfAbsent(span.key, k -> new ArrayList<>()).add(span);
+    }
+    List<Span> once = new ArrayList<>();
+    Map<Long, long[]> twice = new HashMap<>();
+    long twiceCount = 0;
+    for (var entry : byKey.entrySet()) {
+      long key = entry.getKey();
+      List<Span> keySpans = entry.getValue();
+      // Each event is a position where the coverage changes, encoded as position * 2 + (0 for a
+      // start, 1 for an end). The end position is one past the span, so that the events sort
+      // correctly and touching spans merge.
+      long[] events = new long[keySpans.size() * 2];
+      int n = 0;
+      for (Span span : keySpans) {
+        events[n++] = span.lo * 2;
+        events[n++] = (span.hi + 1) * 2 + 1;
+      }
+      Arrays.sort(events);
+      List<Long> twiceBounds = new ArrayList<>();
+      int depth = 0;
+      long onceStart = 0;
+      long twiceStart = 0;
+      for (long event : events) {
+        long pos = event >> 1;
+        if ((event & 1) == 0) {
+          if (++depth == 1) {
+            onceStart = pos;
+          } else if (depth == 2) {
+            twiceStart = pos;
+          }
+        } else {
+          if (depth-- == 2) {
+            if (pos > twiceStart) {
+              twiceBounds.add(twiceStart);
+              twiceBounds.add(pos - 1);
+              twiceCount += pos - twiceStart;
             }
-            x += deltaX;
-            y += deltaY;
+          }
+          if (depth == 0) {
+            once.add(new Span(key, onceStart, pos - 1));
+          }
+        }
+      }
+      if (!twiceBounds.isEmpty()) {
+        twice.put(key, twiceBounds.stream().mapToLong(Long::longValue).toArray());
+      }
+    }
+    return new Coverage(once, twice, twiceCount);
+  }
+
+  /**
+   * Receives a crossing in the sheared coordinates used by {@link #crossings(List, List, Sink)}.
+   */
+  private interface Sink {
+    void accept(long hKey, long vKey);
+  }
+
+  /**
+   * Finds the crossings between the lines of two different orientations, and adds them to {@code
+   * points}, each packed into a long as x in the high half and y in the low half.
+   */
+  private static void crossings(
+      Orientation o1, Orientation o2, Map<Orientation, Coverage> coverages, Set<Long> points) {
+    List<Span> spans1 = coverages.get(o1).once;
+    List<Span> spans2 = coverages.get(o2).once;
+    // In each case, the first list becomes the horizontal lines and the second the vertical
+    // ones, in a frame where the horizontal coordinate is what the vertical lines' keys measure
+    // and the vertical coordinate is what the horizontal lines' keys measure.
+    switch (o1) {
+      case HORIZONTAL -> {
+        switch (o2) {
+          case VERTICAL ->
+              crossings(spans1, spans2, (y, x) -> points.add(pack(x, y)));
+          case DIAGONAL ->
+              crossings(
+                  map(spans1, s -> new Span(s.key, s.lo - s.key, s.hi - s.key)),
+                  map(spans2, s -> new Span(s.key, s.lo - s.key, s.hi - s.key)),
+                  (y, c) -> points.add(pack(c + y, y)));
+          case ANTIDIAGONAL ->
+              crossings(
+                  map(spans1, s -> new Span(s.key, s.lo + s.key, s.hi + s.key)),
+                  map(spans2, s -> new Span(s.key, s.key - s.hi, s.key - s.lo)),
+                  (y, d) -> points.add(pack(d - y, y)));
+          default -> throw new AssertionError(o2);
+        }
+      }
+      case VERTICAL -> {
+        switch (o2) {
+          case DIAGONAL ->
+              crossings(
+                  spans2,
+                  map(spans1, s -> new Span(s.key, s.key - s.hi, s.key - s.lo)),
+                  (c, x) -> points.add(pack(x, x - c)));
+          case ANTIDIAGONAL ->
+              crossings(
+                  spans2,
+                  map(spans1, s -> new Span(s.key, s.key + s.lo, s.key + s.hi)),
+                  (d, x) -> points.add(pack(x, d - x)));
+          default -> throw new AssertionError(o2);
+        }
+      }
+      case DIAGONAL -> {
+        checkState(o2 == Orientation.ANTIDIAGONAL, o2);
+        // Here the frame is u = x + y horizontally and v = x - y vertically. The lines only meet
+        // at a grid point if c + d is even.
+        crossings(
+            map(spans1, s -> new Span(s.key, 2 * s.lo - s.key, 2 * s.hi - s.key)),
+            map(spans2, s -> new Span(s.key, 2 * s.lo - s.key, 2 * s.hi - s.key)),
+            (c, d) -> {
+              if (((c + d) & 1) == 0) {
+                points.add(pack((c + d) / 2, (d - c) / 2));
+              }
+            });
+      }
+      default -> throw new AssertionError(o1);
+    }
+  }
+
+  /**
+   * Finds every crossing between a horizontal span and a vertical span, with a sweep line moving
+   * horizontally. The active horizontal spans are indexed by their vertical position, so each
+   * vertical span only looks at the ones within its range.
+   */
+  private static void crossings(List<Span> hs, List<Span> vs, Sink sink) {
+    // Events at the same position are ordered: horizontal starts, then verticals, then horizontal
+    // ends.
+    record Event(long pos, int order, Span span) {}
+    List<Event> events = new ArrayList<>();
+    for (Span h : hs) {
+      events.add(new Event(h.lo, 0, h));
+      events.add(new Event(h.hi, 2, h));
+    }
+    for (Span v : vs) {
+      events.add(new Event(v.key, 1, v));
+    }
+    events.sort(Comparator.comparingLong(Event::pos).thenComparingInt(Event::order));
+    NavigableMap<Long, Integer> active = new TreeMap<>();
+    for (Event event : events) {
+      Span span = event.span;
+      switch (event.order) {
+        case 0 -> active.merge(span.key, 1, Integer::sum);
+        case 1 -> {
+          for (long hKey : active.subMap(span.lo, true, span.hi, true).keySet()) {
+            sink.accept(hKey, span.key);
           }
         }
-        System.out.printf("Part 1 count for %s is %d\n", name, countMoreThanOne(orthogonalCounts));
-        System.out.printf("Part 2 count for %s is %d\n", name, countMoreThanOne(allCounts));
+        case 2 -> active.compute(span.key, (k, n) -> n == 1 ? null : n - 1);
+        default -> throw new AssertionError(event);
       }
     }
   }
 
-  private static long countMoreThanOne(int[][] counts) {
-    return stream(counts)
-        .flatMap(countLine -> Ints.asList(countLine).stream())
-        .filter(i -> i > 1)
-        .count();
+  private static List<Span> map(List<Span> spans, UnaryOperator<Span> f) {
+    return spans.stream().map(f).toList();
   }
 
-  private record Coord(int x, int y) {}
+  private static long pack(long x, long y) {
+    return (x << 32) | (y & 0xffff_ffffL);
+  }
+
+  record Coord(int x, int y) {}
 
-  private record Line(Coord start, Coord end) {}
+  record Line(Coord start, Coord end) {}
 
   private static List<Line> parseLines(List<String> inputLines) {
     return inputLines.stream().map(Puzzle5::parseLine).toList();
   }
 
-  private static final Pattern LINE_PATTERN = Pattern.compile("(\\d+),(\\d+) -> (\\d+),(\\d+)");
-
   private static Line parseLine(String inputLine) {
-    var matcher = LINE_PATTERN.matcher(inputLine);
-    checkState(matcher.matches(), "No match for %s", inputLine);
-    checkState(matcher.groupCount() == 4, "Unexpected match count %s", matcher.groupCount());
-    int[] numbers =
-        IntStream.range(1, 5).mapToObj(matcher::group).mapToInt(Integer::parseInt).toArray();
+    int[] numbers = NumberScanner.ints(inputLine);
+    checkState(numbers.length == 4, "Unexpected line %s", inputLine);
     return new Line(new Coord(numbers[0], numbers[1]), new Coord(numbers[2], numbers[3]));
   }
-}
\ No newline at end of file
+}
@@ -1,5 +1,6 @@
 package advent2021;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.Iterables.getOnlyElement;
 
 import com.google.common.base.Splitter;
@@ -8,11 +9,13 @@ import com.google.common.io.CharStreams;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.ArrayList;
-import java.util.Collections;
+import adventlib.MatrixPower;
+import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.function.LongFunction;
 
 /**
  * @author Éamonn McManus
@@ -33,26 +36,99 @@ public class Puzzle6 {
       String name = entry.getKey();
       try (Reader r = entry.getValue().call()) {
         List<String> lines = CharStreams.readLines(r);
-        List<Integer> startTimers =
-            Splitter.on(',').splitToStream(getOnlyElement(lines)).map(Integer::valueOf).toList();
-        List<Long> perTimer = new ArrayList<>(Collections.nCopies(9, 0L));
-        for (var i : startTimers) {
-          perTimer.set(i, perTimer.get(i) + 1);
+        int[] startTimers =
+            Splitter.on(',')
+                .splitToStream(getOnlyElement(lines))
+                .mapToInt(Integer::parseInt)
+                .toArray();
+        long[] perTimer = perTimer(startTimers, Timers.DEFAULT);
+        for (int days : new int[] {80, 256}) {
+          System.out.printf(
+              "After %d days, count for %s is %d\n",
+              days, name, count(perTimer, days, Timers.DEFAULT));
         }
-        for (int day = 0; day < 256; day++) {
-          Long spawnCount = perTimer.removeFirst();
-          perTimer.set(6, Math.addExact(perTimer.get(6), spawnCount));
-          perTimer.add(spawnCount);
-          if (day == 79) {
-            System.out.printf(
-                "After 80 days, count for %s is %d\n",
-                name, perTimer.stream().reduce(0L, Math::addExact));
-          }
-        }
-        System.out.printf(
-            "After 256 days, count for %s is %d\n",
-            name, perTimer.stream().reduce(0L, Math::addExact));
       }
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * The timer parameters: a fish whose timer is 0 resets to {@code reset} and spawns a fish whose
+   * timer is {@code newborn}. The puzzle has 6 and 8.
+   */
+  record Timers(int reset, int newborn) {
+    static final Timers DEFAULT = new Timers(6, 8);
+
+    Timers {
+      checkArgument(0 <= reset && reset < newborn, "Bad timers %s, %s", reset, newborn);
+    }
+
+    int size() {
+      return newborn + 1;
+    }
+
+    /** The matrix T such that T times the counts for one day gives the counts for the next. */
+    long[][] transition() {
+      int n = size();
+      long[][] t = new long[n][n];
+      for (int i = 0; i < n - 1; i++) {
+        t[i][i + 1] = 1;
+      }
+      t[n - 1][0] = 1;
+      t[reset][0] += 1;
+      return t;
+    }
+  }
+
+  static long[] perTimer(int[] timers, Timers params) {
+    long[] perTimer = new long[params.size()];
+    for (int timer : timers) {
+      perTimer[timer]++;
+    }
+    return perTimer;
+  }
+
+  /**
+   * Returns the exact number of fish after the given number of days. A day is a linear
+   * transformation of the per-timer counts, so it is a matrix, and n days is that matrix to the
+   * power n, which repeated squaring computes in O(log n) matrix multiplications. The count grows
+   * exponentially, so its size in digits is proportional to {@code days}, which limits how big
+   * {@code days} can usefully be. For larger numbers of days, use {@link #countMod}.
+   */
+  static BigInteger count(long[] perTimer, long days, Timers timers) {
+    checkArgument(days >= 0);
+    int n = timers.size();
+    BigInteger[][] result = MatrixPower.power(map(timers.transition(), BigInteger::valueOf), days);
+    BigInteger total = BigInteger.ZERO;
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        total = total.add(result[i][j].multiply(BigInteger.valueOf(perTimer[j])));
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Returns the number of fish after the given number of days, modulo {@code modulus}. This
+   * takes O(log days) time, so it works for any {@code long} number of days.
+   */
+  static long countMod(long[] perTimer, long days, Timers timers, long modulus) {
+    checkArgument(days >= 0);
+    int n = timers.size();
+    long[][] result = MatrixPower.powerMod(timers.transition(), days, modulus);
+    long total = 0;
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        total = (total + result[i][j] * (perTimer[j] % modulus)) % modulus;
+      }
+    }
+    return total;
+  }
+
+  private static BigInteger[][] map(long[][] m, LongFunction<BigInteger> f) {
+    BigInteger[][] result = new BigInteger[m.length][];
+    for (int i = 0; i < m.length; i++) {
+      result[i] = Arrays.stream(m[i]).mapToObj(f).toArray(BigInteger[]::new);
+    }
+    return result;
+  }
+}
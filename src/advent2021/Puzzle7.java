@@ -1,8 +1,7 @@
 package advent2021;
 
 import static com.google.common.collect.Iterables.getOnlyElement;
-import static java.lang.Integer.min;
-import static java.lang.Math.multiplyExact;
+import static java.lang.Math.min;
 
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableMap;
@@ -10,7 +9,7 @@ import com.google.common.io.CharStreams;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -34,27 +33,60 @@ public class Puzzle7 {
       String name = entry.getKey();
       try (Reader r = entry.getValue().call()) {
         List<String> lines = CharStreams.readLines(r);
-        List<Integer> positions =
-            Splitter.on(',').splitToStream(getOnlyElement(lines)).map(Integer::valueOf).toList();
-        int min = positions.stream().min(Comparator.naturalOrder()).get();
-        int max = positions.stream().max(Comparator.naturalOrder()).get();
-        int part1 = Integer.MAX_VALUE;
-        int part2 = Integer.MAX_VALUE;
-        for (int pos = min; pos <= max; pos++) {
-          int pos0 = pos;
-          int total1 = positions.stream().map(i -> Math.abs(i - pos0)).reduce(0, Integer::sum);
-          part1 = min(part1, total1);
-          int total2 =
-              positions.stream().map(i -> triangle(Math.abs(i - pos0))).reduce(0, Integer::sum);
-          part2 = min(part2, total2);
-        }
-        System.out.printf("For %s, Part 1 best is %d\n", name, part1);
-        System.out.printf("For %s, Part 2 best is %d\n", name, part2);
+        int[] positions =
+            Splitter.on(',')
+                .splitToStream(getOnlyElement(lines))
+                .mapToInt(Integer::parseInt)
+                .toArray();
+        System.out.printf("For %s, Part 1 best is %d\n", name, part1(positions));
+        System.out.printf("For %s, Part 2 best is %d\n", name, part2(positions));
       }
     }
   }
 
-  private static int triangle(int n) {
-    return multiplyExact(n, n + 1) / 2;
+  /**
+   * The sum of distances is minimized at the median, so instead of trying every position we just
+   * need to find that. Sorting a copy is simpler than a selection algorithm and fast enough.
+   */
+  static long part1(int[] positions) {
+    int[] sorted = positions.clone();
+    Arrays.sort(sorted);
+    return linearCost(positions, sorted[sorted.length / 2]);
   }
-}
\ No newline at end of file
+
+  /**
+   * With triangular costs, the derivative of the total cost at {@code p} is
+   * {@code Σ(p - x) + Σsign(p - x)/2},
+   * so the real-valued minimum is within ½ of the mean. The cost is convex, so the best integer
+   * position is within one of the floor of the mean and we only need to try three positions.
+   */
+  static long part2(int[] positions) {
+    long sum = 0;
+    for (int x : positions) {
+      sum += x;
+    }
+    long mean = Math.floorDiv(sum, positions.length);
+    long best = Long.MAX_VALUE;
+    for (long pos = mean - 1; pos <= mean + 1; pos++) {
+      best = min(best, triangularCost(positions, pos));
+    }
+    return best;
+  }
+
+  static long linearCost(int[] positions, long pos) {
+    long total = 0;
+    for (int x : positions) {
+      total += Math.abs(x - pos);
+    }
+    return total;
+  }
+
+  static long triangularCost(int[] positions, long pos) {
+    long total = 0;
+    for (int x : positions) {
+      long d = Math.abs(x - pos);
+      total += d * (d + 1) / 2;
+    }
+    return total;
+  }
+}
@@ -1,9 +1,7 @@
 package advent2021;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import static com.google.common.collect.ImmutableSet.toImmutableSet;
-import static com.google.common.collect.MoreCollectors.onlyElement;
-import static java.util.stream.Collectors.joining;
+import static com.google.common.base.Preconditions.checkState;
 
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableMap;
@@ -11,8 +9,7 @@ import com.google.common.io.CharStreams;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.ArrayList;
-import java.util.EnumSet;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -46,107 +43,101 @@ public class Puzzle8 {
       String name = entry.getKey();
       try (Reader r = entry.getValue().call()) {
         List<String> lines = CharStreams.readLines(r);
-        List<Result> results =
-            lines.stream()
-                .map(line -> Splitter.on(" | ").splitToList(line))
-                .peek(list -> checkArgument(list.size() == 2))
-                .map(
-                    list ->
-                        new Result(
-                            Splitter.on(' ').splitToList(list.get(0)),
-                            Splitter.on(' ').splitToList(list.get(1))))
-                .toList();
+        List<Display> displays = lines.parallelStream().map(Display::parse).toList();
 
         // Part 1
-        Set<Integer> uniqueSizes = Set.of(2, 3, 4, 7);
         long uniqueCount =
-            results.stream()
-                .flatMap(result -> result.outputs.stream())
-                .filter(s -> uniqueSizes.contains(s.length()))
+            displays.stream()
+                .flatMapToInt(display -> Arrays.stream(display.outputs))
+                .filter(mask -> UNIQUE_SIZES.contains(Integer.bitCount(mask)))
                 .count();
         System.out.printf("For %s, unique count is %d\n", name, uniqueCount);
 
         // Part 2
-        long total = 0;
-        for (var result : results) {
-          List<Segment> foundPermutation =
-              PERMUTATIONS.stream()
-                  .filter(
-                      permutation ->
-                          result.inputs.stream()
-                              .map(Puzzle8::segments)
-                              .map(segs -> permute(segs, permutation))
-                              .allMatch(segs -> DIGIT_MAP.containsKey(segs)))
-                  .collect(onlyElement());
-          total +=
-              Integer.valueOf(
-                  result.outputs.stream()
-                      .map(segs -> permute(segments(segs), foundPermutation))
-                      .map(segs -> DIGIT_MAP.get(segs).toString())
-                      .collect(joining()));
-        }
+        long total = displays.parallelStream().mapToLong(Display::decode).sum();
         System.out.printf("For %s, total of decoded values is %d\n", name, total);
       }
     }
   }
 
-  private enum Segment {
-    A,
-    B,
-    C,
-    D,
-    E,
-    F,
-    G,
-  }
+  private static final Set<Integer> UNIQUE_SIZES = Set.of(2, 3, 4, 7);
 
-  private static final ImmutableMap<Set<Segment>, Integer> DIGIT_MAP =
-      ImmutableMap.of(
-          segments("abcefg"), 0,
-          segments("cf"), 1,
-          segments("acdeg"), 2,
-          segments("acdfg"), 3,
-          segments("bcdf"), 4,
-          segments("abdfg"), 5,
-          segments("abdefg"), 6,
-          segments("acf"), 7,
-          segments("abcdefg"), 8,
-          segments("abcdfg"), 9);
-
-  private static Set<Segment> segments(String s) {
-    return s.chars()
-        .mapToObj(i -> Segment.valueOf(String.valueOf((char) i).toUpperCase()))
-        .collect(toImmutableSet());
+  // We don't need to work out the wiring of a display to decode it. Across the ten digits, each
+  // segment is lit a characteristic number of times: segment e in 4 digits, f in 9, and so on.
+  // If we add up those frequencies for the segments of a digit, the total is different for each
+  // digit. Rewiring doesn't change the frequencies, since the ten patterns are just the ten digits
+  // with the segments renamed. So for each display we count how often each wire appears in its
+  // ten patterns, and then each output pattern's total tells us the digit directly.
+
+  private static final List<String> DIGITS =
+      List.of(
+          "abcefg", "cf", "acdeg", "acdfg", "bcdf", "abdfg", "abdefg", "acf", "abcdefg", "abcdfg");
+
+  /** Maps the frequency total of a digit's segments to the digit. */
+  private static final int[] DIGIT_BY_SCORE = digitByScore();
+
+  private static int[] digitByScore() {
+    int[] masks = DIGITS.stream().mapToInt(Puzzle8::mask).toArray();
+    int[] frequencies = frequencies(masks);
+    int[] digitByScore = new int[7 * 10 + 1];
+    Arrays.fill(digitByScore, -1);
+    for (int digit = 0; digit < 10; digit++) {
+      int score = score(masks[digit], frequencies);
+      checkState(digitByScore[score] < 0, "Score %s is not unique", score);
+      digitByScore[score] = digit;
+    }
+    return digitByScore;
   }
 
-  private static Set<Segment> permute(Set<Segment> input, List<Segment> permutation) {
-    return input.stream().map(seg -> permutation.get(seg.ordinal())).collect(toImmutableSet());
+  /** Returns a 7-bit mask with bit 0 for segment a, bit 1 for segment b, and so on. */
+  static int mask(String segments) {
+    int mask = 0;
+    for (int i = 0; i < segments.length(); i++) {
+      int bit = segments.charAt(i) - 'a';
+      checkArgument(bit >= 0 && bit < 7, "Bad segments %s", segments);
+      mask |= 1 << bit;
+    }
+    return mask;
   }
 
-  // A permutation is a List<Segment> where element i says which segment the ordinal i is mapped to.
-  // So element 0 says which segment A is mapped to, etc.
-  private static final List<List<Segment>> PERMUTATIONS = permutations();
+  private static int[] frequencies(int[] masks) {
+    int[] frequencies = new int[7];
+    for (int mask : masks) {
+      for (int bit = 0; bit < 7; bit++) {
+        frequencies[bit] += (mask >> bit) & 1;
+      }
+    }
+    return frequencies;
+  }
 
-  private static List<List<Segment>> permutations() {
-    List<List<Segment>> result = new ArrayList<>();
-    permutations(EnumSet.allOf(Segment.class), List.of(), result);
-    return result;
+  private static int score(int mask, int[] frequencies) {
+    int score = 0;
+    for (int rest = mask; rest != 0; rest &= rest - 1) {
+      score += frequencies[Integer.numberOfTrailingZeros(rest)];
+    }
+    return score;
   }
 
-  private static void permutations(
-      Set<Segment> remaining, List<Segment> soFar, List<List<Segment>> result) {
-    if (remaining.isEmpty()) {
-      result.add(soFar);
-    } else {
-      for (Segment seg : remaining) {
-        Set<Segment> newRemaining = EnumSet.copyOf(remaining);
-        newRemaining.remove(seg);
-        List<Segment> newSoFar = new ArrayList<>(soFar);
-        newSoFar.add(seg);
-        permutations(newRemaining, newSoFar, result);
+  record Display(int[] inputs, int[] outputs) {
+    static Display parse(String line) {
+      List<String> parts = Splitter.on(" | ").splitToList(line);
+      checkArgument(parts.size() == 2, "Bad line %s", line);
+      int[] inputs = Splitter.on(' ').splitToStream(parts.get(0)).mapToInt(Puzzle8::mask).toArray();
+      int[] outputs =
+          Splitter.on(' ').splitToStream(parts.get(1)).mapToInt(Puzzle8::mask).toArray();
+      checkArgument(inputs.length == 10, "Bad line %s", line);
+      return new Display(inputs, outputs);
+    }
+
+    long decode() {
+      int[] frequencies = frequencies(inputs);
+      long value = 0;
+      for (int output : outputs) {
+        int digit = DIGIT_BY_SCORE[score(output, frequencies)];
+        checkState(digit >= 0, "Output does not match any digit");
+        value = value * 10 + digit;
       }
+      return value;
     }
   }
-
-  private record Result(List<String> inputs, List<String> outputs) {}
-}
\ No newline at end of file
+}
@@ -3,14 +3,14 @@ package advent2021;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.common.collect.ImmutableMap;
-import com.google.common.io.CharStreams;
+import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.concurrent.Callable;
 
 /**
@@ -34,96 +34,198 @@ public class Puzzle9 {
   public static void main(String[] args) throws Exception {
     for (var entry : INPUT_PRODUCERS.entrySet()) {
       String name = entry.getKey();
-      try (Reader r = entry.getValue().call()) {
-        List<String> lines = CharStreams.readLines(r);
-        int[][] heights = parseHeights(lines);
+      try (BufferedReader r = new BufferedReader(entry.getValue().call())) {
+        var listener =
+            new Listener() {
+              long risk;
+              final PriorityQueue<Long> top3 = new PriorityQueue<>();
 
-        int risk = part1(heights);
-        System.out.printf("For %s, risk is %d\n", name, risk);
+              @Override
+              public void lowPoint(long row, int column, int height) {
+                risk += height + 1;
+              }
 
-        List<Integer> basinSizes = part2(heights);
+              @Override
+              public void basin(long size) {
+                top3.add(size);
+                if (top3.size() > 3) {
+                  top3.remove();
+                }
+              }
+            };
+        scan(r.lines().iterator(), listener);
+
+        System.out.printf("For %s, risk is %d\n", name, listener.risk);
         System.out.printf(
             "For %s, product of top 3 basin sizes %d\n",
             name,
-            basinSizes.stream()
-                .sorted(Comparator.reverseOrder())
-                .limit(3)
-                .reduce(1, Math::multiplyExact));
+            listener.top3.stream().reduce(1L, Math::multiplyExact));
       }
     }
   }
 
-  private static int part1(int[][] heights) {
-    int risk = 0;
-    for (int i = 0; i < heights.length; i++) {
-      for (int j = 0; j < heights[i].length; j++) {
-        int h = heights[i][j];
-        if ((i > 0 && heights[i - 1][j] <= h)
-            || (i + 1 < heights.length && heights[i + 1][j] <= h)
-            || (j > 0 && heights[i][j - 1] <= h)
-            || (j + 1 < heights[i].length && heights[i][j + 1] <= h)) {
-          continue;
-        }
-        risk += h + 1;
-      }
-    }
-    return risk;
+  /** Receives the results of {@link #scan}. */
+  interface Listener {
+    /** Called for each point that is lower than all of its orthogonal neighbours. */
+    void lowPoint(long row, int column, int height);
+
+    /** Called once for each basin, when the last row containing part of it has been read. */
+    void basin(long size);
   }
 
   /*
     We assume that a basin is actually a maximal collection of orthogonally-adjacent locations that
-    do not include a 9. We proceed from top left to bottom right finding locations that are not 9,
-    and for each one we fill that location and adjacent ones with 9s, while recording the size.
-    Concretely, we find neighbours that are not 9 and recursively fill those.
+    do not include a 9.
 
-    Initially I didn't think it was necessary to consider neighbours "above" (i - 1) the one being
-    filled, but it is, because we might be stopped by a 9 to the "right" (j + 1) on this line but
-    the basin might continue past that 9 on the line "below".
+    We read the rows one at a time, keeping only the previous row. Each location that is not a 9
+    starts as its own component in a union-find structure, and is joined to the location to its
+    left and the one above it if those are not 9 either. The root of each component records its
+    size. Parts of a basin can be separated by 9s in one row and meet again in a later row, at which
+    point their components are merged. Once a row has been processed, any component from the
+    previous row that has no location in this row can never grow again, so we report it. Then we
+    renumber the components that do continue, so the union-find structure never has more than two
+    rows' worth of entries.
+
+    Low points are found in the same pass. A location is a candidate if it is lower than its left
+    and right neighbours and the one above. It is a low point if it is still a candidate when the
+    next row arrives and it is lower than the location below it as well.
   */
-  private static List<Integer> part2(int[][] heights) {
-    List<Integer> basinSizes = new ArrayList<>();
-    for (int i = 0; i < heights.length; i++) {
-      for (int j = 0; j < heights[i].length; j++) {
-        int basinSize = fill(heights, i, j);
-        if (basinSize > 0) {
-          basinSizes.add(basinSize);
+  static void scan(Iterator<String> lines, Listener listener) {
+    if (!lines.hasNext()) {
+      return;
+    }
+    String line = lines.next();
+    int width = line.length();
+    // Union-find nodes 0 to width-1 are the renumbered components from the previous row, and nodes
+    // width to 2*width-1 are the locations in the current row.
+    int[] parent = new int[2 * width];
+    long[] size = new long[2 * width];
+    boolean[] done = new boolean[2 * width];
+    int[] renumber = new int[2 * width];
+    long[] newSize = new long[width];
+    int[] above = new int[width];
+    int[] here = new int[width];
+    boolean[] aboveCandidate = new boolean[width];
+    boolean[] hereCandidate = new boolean[width];
+    int[] aboveLabel = new int[width]; // -1 for a 9
+    int aboveCount = 0;
+    long row = 0;
+    while (true) {
+      checkArgument(
+          line.length() == width, "Line %s has length %s not %s", row, line.length(), width);
+      for (int j = 0; j < width; j++) {
+        here[j] = line.charAt(j) - '0';
+      }
+
+      // Join up components.
+      for (int j = 0; j < width; j++) {
+        int node = width + j;
+        parent[node] = node;
+        size[node] = 1;
+        if (here[j] == 9) {
+          continue;
+        }
+        if (j > 0 && here[j - 1] != 9) {
+          union(parent, size, node - 1, node);
+        }
+        if (row > 0 && aboveLabel[j] >= 0) {
+          union(parent, size, aboveLabel[j], node);
         }
       }
-    }
-    return basinSizes;
-  }
 
-  private static int fill(int[][] heights, int i, int j) {
-    if (heights[i][j] == 9) {
-      return 0;
-    }
-    heights[i][j] = 9;
-    int basinSize = 1;
-    if (i > 0) {
-      basinSize += fill(heights, i - 1, j);
+      // Low points.
+      for (int j = 0; j < width; j++) {
+        int h = here[j];
+        hereCandidate[j] =
+            (j == 0 || here[j - 1] > h)
+                && (j + 1 == width || here[j + 1] > h)
+                && (row == 0 || above[j] > h);
+        if (row > 0 && aboveCandidate[j] && h > above[j]) {
+          listener.lowPoint(row - 1, j, above[j]);
+        }
+      }
+
+      // Report components from the previous row that do not continue into this one.
+      Arrays.fill(done, false);
+      for (int j = 0; j < width; j++) {
+        if (here[j] != 9) {
+          done[find(parent, width + j)] = true;
+        }
+      }
+      for (int k = 0; k < aboveCount; k++) {
+        int root = find(parent, k);
+        if (!done[root]) {
+          done[root] = true;
+          listener.basin(size[root]);
+        }
+      }
+
+      // Renumber the components in this row as 0, 1, 2... for use with the next row.
+      Arrays.fill(renumber, -1);
+      int count = 0;
+      for (int j = 0; j < width; j++) {
+        if (here[j] == 9) {
+          aboveLabel[j] = -1;
+        } else {
+          int root = find(parent, width + j);
+          if (renumber[root] < 0) {
+            renumber[root] = count;
+            newSize[count] = size[root];
+            count++;
+          }
+          aboveLabel[j] = renumber[root];
+        }
+      }
+      for (int k = 0; k < count; k++) {
+        parent[k] = k;
+        size[k] = newSize[k];
+      }
+      aboveCount = count;
+
+      int[] heights = above;
+      above = here;
+      here = heights;
+      boolean[] candidates = aboveCandidate;
+      aboveCandidate = hereCandidate;
+      hereCandidate = candidates;
+      row++;
+      if (!lines.hasNext()) {
+        break;
+      }
+      line = lines.next();
     }
-    if (j > 0) {
-      basinSize += fill(heights, i, j - 1);
+
+    // Nothing below the last row.
+    for (int j = 0; j < width; j++) {
+      if (aboveCandidate[j]) {
+        listener.lowPoint(row - 1, j, above[j]);
+      }
     }
-    if (j + 1 < heights[i].length) {
-      basinSize += fill(heights, i, j + 1);
+    for (int k = 0; k < aboveCount; k++) {
+      listener.basin(size[k]);
     }
-    if (i + 1 < heights.length) {
-      basinSize += fill(heights, i + 1, j);
+  }
+
+  private static int find(int[] parent, int node) {
+    while (parent[node] != node) {
+      parent[node] = parent[parent[node]];
+      node = parent[node];
     }
-    return basinSize;
+    return node;
   }
 
-  private static int[][] parseHeights(List<String> lines) {
-    int width = lines.getFirst().length();
-    checkArgument(lines.stream().allMatch(line -> line.length() == width));
-    int[][] result = new int[lines.size()][width];
-    for (int i = 0; i < result.length; i++) {
-      String line = lines.get(i);
-      for (int j = 0; j < width; j++) {
-        result[i][j] = line.charAt(j) - '0';
-      }
+  private static void union(int[] parent, long[] size, int a, int b) {
+    int rootA = find(parent, a);
+    int rootB = find(parent, b);
+    if (rootA == rootB) {
+      return;
+    }
+    if (size[rootA] < size[rootB]) {
+      int t = rootA;
+      rootA = rootB;
+      rootB = t;
     }
-    return result;
+    parent[rootB] = rootA;
+    size[rootA] += size[rootB];
   }
-}
\ No newline at end of file
+}
@@ -1,12 +1,14 @@
 package advent2022;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.Math.addExact;
+
 import com.google.common.collect.ImmutableMap;
-import com.google.common.io.CharStreams;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.Callable;
 
@@ -41,26 +43,116 @@ public class Puzzle1 {
     for (var entry : INPUT_PRODUCERS.entrySet()) {
       String name = entry.getKey();
       try (Reader r = entry.getValue().call()) {
-        List<String> lines = CharStreams.readLines(r);
-        List<List<String>> groups = new ArrayList<>();
+        long[] top = topTotals(r, 3);
+        System.out.println("Max for " + name + " is " + top[0]);
+        long topThree = Arrays.stream(top).sum();
+        System.out.println("Sum of top three is " + topThree);
+      }
+    }
+  }
+
+  /**
+   * Returns the {@code k} largest group totals, largest first, or fewer if there are fewer than
+   * {@code k} groups. Groups are separated by blank lines. We read characters in chunks and
+   * accumulate each number and each group total as we go, offering each total to a {@link TopK}.
+   * So memory is O(k) however big the input is. Blank lines that don't end a group, like a second
+   * blank line in a row, are ignored.
+   */
+  static long[] topTotals(Reader reader, int k) throws IOException {
+    TopK top = new TopK(k);
+    char[] buf = new char[1 << 16];
+    long number = 0;
+    boolean inNumber = false;
+    long total = 0;
+    boolean inGroup = false;
+    int n;
+    while ((n = reader.read(buf)) > 0) {
+      for (int i = 0; i < n; i++) {
+        char c = buf[i];
+        if (c >= '0' && c <= '9') {
+          int digit = c - '0';
+          if (number > (Long.MAX_VALUE - digit) / 10) {
+            throw new NumberFormatException("Number too big");
+          }
+          number = number * 10 + digit;
+          inNumber = true;
+        } else if (c == '\n') {
+          if (inNumber) {
+            total = addExact(total, number);
+            number = 0;
+            inNumber = false;
+            inGroup = true;
+          } else if (inGroup) {
+            top.offer(total);
+            total = 0;
+            inGroup = false;
+          }
+        } else if (c != '\r') {
+          throw new IllegalArgumentException("Unexpected character '" + c + "'");
+        }
+      }
+    }
+    if (inNumber) {
+      total = addExact(total, number);
+      inGroup = true;
+    }
+    if (inGroup) {
+      top.offer(total);
+    }
+    return top.largestFirst();
+  }
+
+  /**
+   * Keeps the {@code k} largest values offered to it, in a min-heap. The smallest of those is at
+   * the root, so a new value only needs to be compared with the root, and if it is bigger it
+   * replaces the root and sifts down, in O(log k).
+   */
+  static final class TopK {
+    private final long[] heap;
+    private int size;
+
+    TopK(int k) {
+      checkArgument(k > 0, "k must be positive: %s", k);
+      this.heap = new long[k];
+    }
+
+    void offer(long value) {
+      if (size < heap.length) {
+        int i = size++;
+        while (i > 0 && heap[(i - 1) / 2] > value) {
+          heap[i] = heap[(i - 1) / 2];
+          i = (i - 1) / 2;
+        }
+        heap[i] = value;
+      } else if (value > heap[0]) {
+        int i = 0;
         while (true) {
-          int index = lines.indexOf("");
-          if (index < 0) {
+          int child = 2 * i + 1;
+          if (child >= size) {
             break;
           }
-          groups.add(lines.subList(0, index));
-          lines = lines.subList(index + 1, lines.size());
+          if (child + 1 < size && heap[child + 1] < heap[child]) {
+            child++;
+          }
+          if (heap[child] >= value) {
+            break;
+          }
+          heap[i] = heap[child];
+          i = child;
         }
-        groups.add(lines);
-        List<Long> totals =
-            groups.stream()
-                .map(group -> group.stream().mapToLong(Long::parseLong).sum())
-                .sorted()
-                .toList();
-        System.out.println("Max for " + name + " is " + totals.getLast());
-        long topThree = totals.stream().skip(totals.size() - 3).mapToLong(Long::valueOf).sum();
-        System.out.println("Sum of top three is " + topThree);
+        heap[i] = value;
+      }
+    }
+
+    long[] largestFirst() {
+      long[] result = Arrays.copyOf(heap, size);
+      Arrays.sort(result);
+      for (int i = 0, j = size - 1; i < j; i++, j--) {
+        long t = result[i];
+        result[i] = result[j];
+        result[j] = t;
       }
+      return result;
     }
   }
 }
@@ -4,6 +4,7 @@ import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.DiscreteDomain.integers;
 import static java.lang.Math.abs;
 
+import adventlib.NumberScanner;
 import com.google.common.collect.ContiguousSet;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
@@ -19,7 +20,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.regex.Pattern;
 
 /**
  * @author Éamonn McManus
@@ -139,20 +139,12 @@ public class Puzzle15 {
     return ContiguousSet.create(range, integers()).size();
   }
 
-  private static final Pattern SENSOR_PATTERN =
-      Pattern.compile("Sensor at x=(.*), y=(.*): closest beacon is at x=(.*), y=(.*)");
-
+  // Sensor at x=2, y=18: closest beacon is at x=-2, y=15
   private static List<Sensor> parseSensors(List<String> lines) {
     return lines.stream()
-        .map(SENSOR_PATTERN::matcher)
-        .peek(m -> checkState(m.matches()))
-        .map(
-            m ->
-                new Sensor(
-                    Integer.parseInt(m.group(1)),
-                    Integer.parseInt(m.group(2)),
-                    Integer.parseInt(m.group(3)),
-                    Integer.parseInt(m.group(4))))
+        .map(NumberScanner::ints)
+        .peek(a -> checkState(a.length == 4))
+        .map(a -> new Sensor(a[0], a[1], a[2], a[3]))
         .toList();
   }
 
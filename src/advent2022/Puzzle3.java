@@ -1,18 +1,17 @@
 package advent2022;
 
-import static com.google.common.collect.ImmutableSet.toImmutableSet;
-import static com.google.common.collect.Sets.intersection;
+import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
-import com.google.common.io.CharStreams;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 /**
  * @author Éamonn McManus
@@ -33,40 +32,160 @@ public class Puzzle3 {
           "sample", () -> new StringReader(SAMPLE),
           "problem", () -> new InputStreamReader(Puzzle3.class.getResourceAsStream("puzzle3.txt")));
 
+  /** Sums the rucksacks sequentially, or in parallel if the argument is {@code parallel}. */
   public static void main(String[] args) throws Exception {
+    boolean parallel = args.length > 0 && args[0].equals("parallel");
     for (var entry : INPUT_PRODUCERS.entrySet()) {
       String name = entry.getKey();
       try (Reader r = entry.getValue().call()) {
-        List<String> lines = CharStreams.readLines(r);
+        Sums sums = sums(r, parallel);
 
         // Part 1
-        long sumPart1 = 0;
-        for (String line : lines) {
-          String left = line.substring(0, line.length() / 2);
-          String right = line.substring(line.length() / 2);
-          assert left.length() == right.length() : line;
-          var leftSet = classify(left);
-          var rightSet = classify(right);
-          var intersection = intersection(leftSet, rightSet);
-          char c = Iterables.getOnlyElement(intersection);
-          sumPart1 += priority(c);
-        }
-        System.out.println("Part 1 sum for " + name + " is " + sumPart1);
+        System.out.println("Part 1 sum for " + name + " is " + sums.compartments());
 
         // Part 2
-        long sumPart2 = 0;
-        assert lines.size() % 3 == 0;
-        for (int i = 0; i < lines.size(); i += 3) {
-          var intersection =
-              intersection(
-                  classify(lines.get(i)),
-                  intersection(classify(lines.get(i + 1)), classify(lines.get(i + 2))));
-          var c = Iterables.getOnlyElement(intersection);
-          sumPart2 += priority(c);
+        System.out.println("Part 2 sum for " + name + " is " + sums.groups());
+      }
+    }
+  }
+
+  // There are only 52 possible items, so the items in a string fit in the bits of a long. If we use
+  // bit priority-1 for each item, then intersection is just &, and the priority of the one item in
+  // an intersection is one more than the number of trailing zeros.
+  //
+  // We read the input in blocks of characters, each cut after the last complete group of three
+  // lines, with the rest carried over to the start of the next block. Lines are scanned directly
+  // in the char[] of their block, so nothing is allocated per line, and both parts are computed in
+  // the same scan. In parallel mode, we read a batch of blocks and then sum them in parallel, so
+  // memory is bounded by the size of a batch however big the input is.
+
+  /**
+   * The sum of the priorities of the item that is in both halves of each line, and the sum of the
+   * priorities of the item that is in all three lines of each group.
+   */
+  record Sums(long compartments, long groups) {
+    static final Sums ZERO = new Sums(0, 0);
+
+    Sums plus(Sums that) {
+      return new Sums(compartments + that.compartments, groups + that.groups);
+    }
+  }
+
+  private static final int BLOCK_SIZE = 1 << 16;
+
+  static Sums sums(Reader reader, boolean parallel) throws IOException {
+    Block[] batch = new Block[parallel ? 4 * ForkJoinPool.getCommonPoolParallelism() : 1];
+    for (int i = 0; i < batch.length; i++) {
+      batch[i] = new Block();
+    }
+    Block previous = new Block();
+    Sums total = Sums.ZERO;
+    while (true) {
+      int n = 0;
+      while (n < batch.length && batch[n].fill(previous, reader)) {
+        previous = batch[n++];
+      }
+      if (n == 0) {
+        return total;
+      }
+      IntStream indexes = IntStream.range(0, n);
+      if (parallel) {
+        indexes = indexes.parallel();
+      }
+      total = total.plus(indexes.mapToObj(i -> batch[i].sums()).reduce(Sums.ZERO, Sums::plus));
+    }
+  }
+
+  /**
+   * A buffer of characters from the input. The characters before {@code end} are complete groups
+   * of three lines, or at the end of the input whatever lines are left. The characters from
+   * {@code end} to {@code length} belong to the next block.
+   */
+  private static final class Block {
+    private char[] chars = new char[BLOCK_SIZE];
+    private int length;
+    private int end;
+
+    /**
+     * Fills this block with the characters that {@code previous} carried over, followed by as
+     * many more from {@code reader} as fit. If there isn't a complete group, the buffer is grown
+     * until there is. Returns false if there is nothing left. The {@code previous} block can be
+     * this one.
+     */
+    boolean fill(Block previous, Reader reader) throws IOException {
+      int carried = previous.length - previous.end;
+      if (chars.length < carried) {
+        chars = new char[previous.chars.length];
+      }
+      System.arraycopy(previous.chars, previous.end, chars, 0, carried);
+      length = carried;
+      end = 0;
+      int lines = 0;
+      int scanned = 0;
+      while (true) {
+        for (; scanned < length; scanned++) {
+          if (chars[scanned] == '\n' && ++lines % 3 == 0) {
+            end = scanned + 1;
+          }
+        }
+        if (length == chars.length) {
+          if (end > 0) {
+            return true;
+          }
+          chars = Arrays.copyOf(chars, chars.length * 2);
         }
-        System.out.println("Part 2 sum for " + name + " is " + sumPart2);
+        int n = reader.read(chars, length, chars.length - length);
+        if (n < 0) {
+          end = length;
+          return end > 0;
+        }
+        length += n;
       }
     }
+
+    Sums sums() {
+      long compartments = 0;
+      long groups = 0;
+      long groupItems = 0;
+      int lineCount = 0;
+      for (int start = 0; start < end; ) {
+        int newline = start;
+        while (newline < end && chars[newline] != '\n') {
+          newline++;
+        }
+        int lineEnd = (newline > start && chars[newline - 1] == '\r') ? newline - 1 : newline;
+        int half = (lineEnd - start) / 2;
+        if (half * 2 != lineEnd - start) {
+          throw new IllegalArgumentException(
+              "Odd length: " + new String(chars, start, lineEnd - start));
+        }
+        long left = items(chars, start, start + half);
+        long right = items(chars, start + half, lineEnd);
+        compartments += priority(left & right);
+        long lineItems = left | right;
+        groupItems = (lineCount % 3 == 0) ? lineItems : groupItems & lineItems;
+        if (++lineCount % 3 == 0) {
+          groups += priority(groupItems);
+        }
+        start = newline + 1;
+      }
+      checkArgument(lineCount % 3 == 0, "Incomplete group of %s lines at end", lineCount % 3);
+      return new Sums(compartments, groups);
+    }
+  }
+
+  /** Returns the priority of the single item in {@code items}. */
+  private static int priority(long items) {
+    checkArgument(Long.bitCount(items) == 1, "Expected exactly one common item");
+    return Long.numberOfTrailingZeros(items) + 1;
+  }
+
+  private static long items(char[] chars, int from, int to) {
+    long items = 0;
+    for (int i = from; i < to; i++) {
+      items |= 1L << (priority(chars[i]) - 1);
+    }
+    return items;
   }
 
   private static int priority(char c) {
@@ -75,11 +194,7 @@ public class Puzzle3 {
     } else if (c >= 'A' && c <= 'Z') {
       return c - 'A' + 27;
     } else {
-      throw new AssertionError(c);
+      throw new IllegalArgumentException("Bad item " + c);
     }
   }
-
-  private static ImmutableSet<Character> classify(String string) {
-    return string.chars().mapToObj(i -> (char) i).collect(toImmutableSet());
-  }
 }
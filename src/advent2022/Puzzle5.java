@@ -1,7 +1,7 @@
 package advent2022;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
-import static java.util.stream.Collectors.joining;
 
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableMap;
@@ -9,10 +9,12 @@ import com.google.common.io.CharStreams;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.Callable;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.IntStream;
@@ -39,7 +41,10 @@ public class Puzzle5 {
           "sample", () -> new StringReader(SAMPLE),
           "problem", () -> new InputStreamReader(Puzzle5.class.getResourceAsStream("puzzle5.txt")));
 
+  /** Runs with {@link ArrayStacks}, or with {@link RopeStacks} if the argument is {@code rope}. */
   public static void main(String[] args) throws Exception {
+    boolean rope = args.length > 0 && args[0].equals("rope");
+    Function<List<String>, Stacks> newStacks = rope ? RopeStacks::new : ArrayStacks::new;
     for (var entry : INPUT_PRODUCERS.entrySet()) {
       String name = entry.getKey();
       try (Reader r = entry.getValue().call()) {
@@ -51,45 +56,237 @@ public class Puzzle5 {
         // The first line is just the pile numbers, and we assume they are just 1 to N.
         int nPiles = Splitter.onPattern("\\s+").splitToList(pileStrings.getFirst().trim()).size();
         pileStrings = pileStrings.subList(1, pileStrings.size());
-        List<? extends List<Character>> piles = parsePiles(pileStrings, nPiles);
+        List<String> piles = parsePiles(pileStrings, nPiles);
 
         List<Move> moves = lines.stream().skip(blank + 1).map(line -> parseMove(line)).toList();
+        Stacks stacks = newStacks.apply(piles);
         for (Move move : moves) {
-          for (int i = 0; i < move.n; i++) {
-            piles.get(move.to - 1).add(piles.get(move.from - 1).removeLast());
-          }
+          stacks.move(move.n, move.from - 1, move.to - 1, true);
         }
-        String tops =
-            piles.stream().map(pile -> pile.getLast()).map(Object::toString).collect(joining(""));
-        System.out.println("Part 1 tops for " + name + ": " + tops);
+        System.out.println("Part 1 tops for " + name + ": " + stacks.tops());
 
-        piles = parsePiles(pileStrings, nPiles);
+        stacks = newStacks.apply(piles);
         for (Move move : moves) {
-          List<Character> moved = new ArrayList<>();
-          for (int i = 0; i < move.n; i++) {
-            moved.add(piles.get(move.from - 1).removeLast());
-          }
-          piles.get(move.to - 1).addAll(moved.reversed());
+          stacks.move(move.n, move.from - 1, move.to - 1, false);
         }
-        tops =
-            piles.stream().map(pile -> pile.getLast()).map(Object::toString).collect(joining(""));
-        System.out.println("Part 2 tops for " + name + ": " + tops);
+        System.out.println("Part 2 tops for " + name + ": " + stacks.tops());
       }
     }
   }
 
-  private static List<? extends List<Character>> parsePiles(List<String> pileStrings, int nPiles) {
-    List<? extends List<Character>> piles =
-        IntStream.range(0, nPiles).mapToObj(unused -> new ArrayList<Character>()).toList();
+  /** Returns the contents of each pile, from bottom to top. */
+  private static List<String> parsePiles(List<String> pileStrings, int nPiles) {
+    List<StringBuilder> piles =
+        IntStream.range(0, nPiles).mapToObj(unused -> new StringBuilder()).toList();
     for (String s : pileStrings) {
       for (int i = 0; i < nPiles; i++) {
         int ii = i * 4 + 1;
         if (ii < s.length() && Character.isLetter(s.charAt(ii))) {
-          piles.get(i).add(s.charAt(ii));
+          piles.get(i).append(s.charAt(ii));
+        }
+      }
+    }
+    return piles.stream().map(StringBuilder::toString).toList();
+  }
+
+  /**
+   * Numbered stacks of crates. A move takes the top {@code n} crates from one stack and puts them
+   * on another. If {@code oneAtATime} is true (the CrateMover 9000), the crates are moved one by
+   * one, so they end up in reverse order; otherwise (the CrateMover 9001) they keep their order.
+   */
+  sealed interface Stacks {
+    void move(int n, int from, int to, boolean oneAtATime);
+
+    /** Returns the crate at the top of each stack. */
+    String tops();
+  }
+
+  /**
+   * Stacks held in growable {@code char[]} buffers. A move is a single {@link System#arraycopy},
+   * or a simple reversing loop for the CrateMover 9000. That is O(n) for a move of n crates, but
+   * with no boxing or allocation.
+   */
+  static final class ArrayStacks implements Stacks {
+    private final char[][] stacks;
+    private final int[] sizes;
+
+    ArrayStacks(List<String> piles) {
+      stacks = new char[piles.size()][];
+      sizes = new int[piles.size()];
+      for (int i = 0; i < stacks.length; i++) {
+        stacks[i] = Arrays.copyOf(piles.get(i).toCharArray(), Math.max(16, piles.get(i).length()));
+        sizes[i] = piles.get(i).length();
+      }
+    }
+
+    @Override
+    public void move(int n, int from, int to, boolean oneAtATime) {
+      checkArgument(n >= 0 && n <= sizes[from], "Can't move %s crates from %s", n, from + 1);
+      if (from == to) {
+        return; // either way the stack ends up as it was
+      }
+      int needed = sizes[to] + n;
+      if (needed > stacks[to].length) {
+        stacks[to] = Arrays.copyOf(stacks[to], Math.max(needed, stacks[to].length * 2));
+      }
+      char[] source = stacks[from];
+      char[] dest = stacks[to];
+      int start = sizes[from] - n;
+      if (oneAtATime) {
+        for (int i = 0, j = sizes[to] + n - 1; i < n; i++, j--) {
+          dest[j] = source[start + i];
+        }
+      } else {
+        System.arraycopy(source, start, dest, sizes[to], n);
+      }
+      sizes[from] = start;
+      sizes[to] = needed;
+    }
+
+    @Override
+    public String tops() {
+      StringBuilder tops = new StringBuilder();
+      for (int i = 0; i < stacks.length; i++) {
+        checkState(sizes[i] > 0, "Stack %s is empty", i + 1);
+        tops.append(stacks[i][sizes[i] - 1]);
+      }
+      return tops.toString();
+    }
+  }
+
+  /**
+   * Stacks represented as ropes, so that moving n crates takes O(log n) time rather than O(n).
+   * Each stack is a treap with implicit keys: a binary tree of crates that is in order from bottom
+   * to top, and also a heap on random priorities, so it is balanced with high probability. Each
+   * node records the size of its subtree, so we can split off the top n crates, or join two
+   * stacks, in O(log n). A node can also be marked as reversed, meaning that its subtree should be
+   * read backwards. That lets the CrateMover 9000 reverse the crates it moves in O(1), by marking
+   * the root of the split-off tree. The mark is pushed down to the children whenever we visit a
+   * node. Nodes are indexes into parallel arrays, with 0 meaning no node.
+   */
+  static final class RopeStacks implements Stacks {
+    private final int[] roots;
+    private final int[] left;
+    private final int[] right;
+    private final int[] size;
+    private final int[] priority;
+    private final boolean[] reversed;
+    private final char[] crate;
+    // The results of split, to avoid allocating.
+    private int splitBottom;
+    private int splitTop;
+
+    RopeStacks(List<String> piles) {
+      int total = piles.stream().mapToInt(String::length).sum();
+      roots = new int[piles.size()];
+      left = new int[total + 1];
+      right = new int[total + 1];
+      size = new int[total + 1];
+      priority = new int[total + 1];
+      reversed = new boolean[total + 1];
+      crate = new char[total + 1];
+      Random random = new Random(5);
+      int node = 0;
+      for (int i = 0; i < roots.length; i++) {
+        for (char c : piles.get(i).toCharArray()) {
+          node++;
+          size[node] = 1;
+          priority[node] = random.nextInt();
+          crate[node] = c;
+          roots[i] = merge(roots[i], node);
+        }
+      }
+    }
+
+    @Override
+    public void move(int n, int from, int to, boolean oneAtATime) {
+      checkArgument(n >= 0 && n <= size[roots[from]], "Can't move %s crates from %s", n, from + 1);
+      if (from == to) {
+        return; // either way the stack ends up as it was
+      }
+      split(roots[from], size[roots[from]] - n);
+      roots[from] = splitBottom;
+      int moved = splitTop;
+      if (oneAtATime && moved != 0) {
+        reversed[moved] ^= true;
+      }
+      roots[to] = merge(roots[to], moved);
+    }
+
+    @Override
+    public String tops() {
+      StringBuilder tops = new StringBuilder();
+      for (int i = 0; i < roots.length; i++) {
+        int node = roots[i];
+        checkState(node != 0, "Stack %s is empty", i + 1);
+        while (true) {
+          pushDown(node);
+          if (right[node] == 0) {
+            break;
+          }
+          node = right[node];
         }
+        tops.append(crate[node]);
+      }
+      return tops.toString();
+    }
+
+    private void pushDown(int node) {
+      if (reversed[node]) {
+        int t = left[node];
+        left[node] = right[node];
+        right[node] = t;
+        reversed[left[node]] ^= true;
+        reversed[right[node]] ^= true;
+        reversed[0] = false;
+        reversed[node] = false;
+      }
+    }
+
+    private void update(int node) {
+      size[node] = 1 + size[left[node]] + size[right[node]];
+    }
+
+    /** Joins two trees, with all of {@code bottom} before all of {@code top}. */
+    private int merge(int bottom, int top) {
+      if (bottom == 0) {
+        return top;
+      }
+      if (top == 0) {
+        return bottom;
+      }
+      if (priority[bottom] > priority[top]) {
+        pushDown(bottom);
+        right[bottom] = merge(right[bottom], top);
+        update(bottom);
+        return bottom;
+      } else {
+        pushDown(top);
+        left[top] = merge(bottom, left[top]);
+        update(top);
+        return top;
+      }
+    }
+
+    /** Splits a tree into its first {@code k} nodes and the rest, in splitBottom and splitTop. */
+    private void split(int node, int k) {
+      if (node == 0) {
+        splitBottom = splitTop = 0;
+        return;
+      }
+      pushDown(node);
+      if (size[left[node]] >= k) {
+        split(left[node], k);
+        left[node] = splitTop;
+        update(node);
+        splitTop = node;
+      } else {
+        split(right[node], k - size[left[node]] - 1);
+        right[node] = splitBottom;
+        update(node);
+        splitBottom = node;
       }
     }
-    return piles;
   }
 
   private static final Pattern MOVE_PATTERN = Pattern.compile("move (\\d+) from (\\d+) to (\\d+)");
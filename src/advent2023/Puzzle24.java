@@ -2,14 +2,12 @@ package advent2023;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import adventlib.NumberScanner;
 import java.io.InputStream;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.math.RoundingMode;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.IntStream;
 
 /**
  * @author Éamonn McManus
@@ -260,21 +258,12 @@ public class Puzzle24 {
     }
   }
 
-  private static final Pattern HAILSTONE_PATTERN =
-      Pattern.compile("(\\d+),\\s+(\\d+),\\s+(\\d+)\\s+@\\s+(-?\\d+),\\s+(-?\\d+),\\s+(-?\\d+)");
-
   // 19, 13, 30 @ -2,  1, -2
 
   static Hailstone parseHailstone(String line) {
-    Matcher matcher = HAILSTONE_PATTERN.matcher(line);
-    boolean matches = matcher.matches();
-    assert matches : line;
-    long[] group = groups(matcher).stream().mapToLong(Long::parseLong).toArray();
-    return new Hailstone(group[0], group[1], group[2], group[3], group[4], group[5]);
-  }
-
-  static List<String> groups(Matcher matcher) {
-    return IntStream.rangeClosed(1, matcher.groupCount()).mapToObj(matcher::group).toList();
+    long[] n = NumberScanner.longs(line);
+    assert n.length == 6 : line;
+    return new Hailstone(n[0], n[1], n[2], n[3], n[4], n[5]);
   }
 
   record Hailstone(long startX, long startY, long startZ, long deltaX, long deltaY, long deltaZ) {}
@@ -1,21 +1,17 @@
 package advent2024;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import static java.lang.Math.absExact;
 
+import adventlib.NumberScanner;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableMultiset;
 import com.google.common.io.CharStreams;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * @author Éamonn McManus
@@ -36,33 +32,60 @@ public class Puzzle1 {
           "sample", () -> new StringReader(SAMPLE),
           "problem", () -> new InputStreamReader(Puzzle1.class.getResourceAsStream("puzzle1.txt")));
 
-  private static final Pattern LINE_PATTERN = Pattern.compile("(\\d+)\\s+(\\d+)");
-
   public static void main(String[] args) throws Exception {
     for (var entry : INPUT_PRODUCERS.entrySet()) {
       String name = entry.getKey();
       try (Reader r = entry.getValue().call()) {
         List<String> lines = CharStreams.readLines(r);
-        List<Integer> left = new ArrayList<>();
-        List<Integer> right = new ArrayList<>();
-        for (String line : lines) {
-          Matcher matcher = LINE_PATTERN.matcher(line);
-          checkArgument(matcher.matches());
-          left.add(Integer.valueOf(matcher.group(1)));
-          right.add(Integer.valueOf(matcher.group(2)));
-        }
-        Collections.sort(left);
-        Collections.sort(right);
-        var rightCounts = ImmutableMultiset.copyOf(right);
-        int total = 0;
-        long similarity = 0;
-        for (int i = 0; i < left.size(); i++) {
-          total += absExact(left.get(i) - right.get(i));
-          similarity += left.get(i) * rightCounts.count(left.get(i));
+        int[] left = new int[lines.size()];
+        int[] right = new int[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+          NumberScanner scanner = new NumberScanner(lines.get(i));
+          left[i] = scanner.nextInt();
+          right[i] = scanner.nextInt();
+          checkArgument(!scanner.hasNext(), "Unexpected line %s", lines.get(i));
         }
-        System.out.println("Total for " + name + " is " + total);
-        System.out.println("Similarity for " + name + " is " + similarity);
+        Arrays.sort(left);
+        Arrays.sort(right);
+        System.out.println("Total for " + name + " is " + distance(left, right));
+        System.out.println("Similarity for " + name + " is " + similarity(left, right));
+      }
+    }
+  }
+
+  /** Returns the sum of the pairwise distances between two sorted arrays of the same length. */
+  static long distance(int[] left, int[] right) {
+    long total = 0;
+    for (int i = 0; i < left.length; i++) {
+      total += Math.abs((long) left[i] - right[i]);
+    }
+    return total;
+  }
+
+  /**
+   * Returns the sum over {@code left} of each number times the number of times it appears in
+   * {@code right}. Since both arrays are sorted, we can find the counts by walking through them in
+   * step, rather than building a multiset.
+   */
+  static long similarity(int[] left, int[] right) {
+    long similarity = 0;
+    int j = 0;
+    int count = 0;
+    for (int i = 0; i < left.length; i++) {
+      if (i > 0 && left[i] == left[i - 1]) {
+        similarity += (long) left[i] * count;
+        continue;
+      }
+      while (j < right.length && right[j] < left[i]) {
+        j++;
+      }
+      count = 0;
+      while (j < right.length && right[j] == left[i]) {
+        count++;
+        j++;
       }
+      similarity += (long) left[i] * count;
     }
+    return similarity;
   }
 }
@@ -1,20 +1,21 @@
 package advent2024;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.math.LongMath.gcd;
 import static java.lang.Math.absExact;
 import static java.lang.Math.multiplyExact;
 
+import adventlib.NumberScanner;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.CharStreams;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.OptionalLong;
 import java.util.concurrent.Callable;
-import java.util.regex.Pattern;
-import java.util.stream.IntStream;
 
 /**
  * @author Éamonn McManus
@@ -46,30 +47,12 @@ public class Puzzle13 {
           "problem",
           () -> new InputStreamReader(Puzzle13.class.getResourceAsStream("puzzle13.txt")));
 
-  // Button A: X+94, Y+34
-  // Button B: X+22, Y+67
-  // Prize: X=8400, Y=5400
-  private static final Pattern INPUT_PATTERN =
-      Pattern.compile(
-          """
-          Button A: X\\+(\\d+), Y\\+(\\d+)
-          Button B: X\\+(\\d+), Y\\+(\\d+)
-          Prize: X=(\\d+), Y=(\\d+)\
-          """,
-          Pattern.MULTILINE);
-
   public static void main(String[] args) throws Exception {
     for (var entry : INPUT_PRODUCERS.entrySet()) {
       String name = entry.getKey();
       try (Reader r = entry.getValue().call()) {
         String input = CharStreams.toString(r);
-        List<Machine> machines =
-            INPUT_PATTERN
-                .matcher(input)
-                .results()
-                .map(m -> IntStream.range(1, 7).map(i -> Integer.parseInt(m.group(i))).toArray())
-                .map(ns -> new Machine(ns[0], ns[1], ns[2], ns[3], ns[4], ns[5]))
-                .toList();
+        List<Machine> machines = parseMachines(input);
         long total1 =
             machines.stream()
                 .map(m -> solutionCost(m.aX, m.bX, m.prizeX, m.aY, m.bY, m.prizeY))
@@ -88,6 +71,21 @@ public class Puzzle13 {
 
   record Machine(int aX, int aY, int bX, int bY, int prizeX, int prizeY) {}
 
+  // Button A: X+94, Y+34
+  // Button B: X+22, Y+67
+  // Prize: X=8400, Y=5400
+  //
+  // Each machine is exactly six numbers, so we don't need to look at the text around them.
+  private static List<Machine> parseMachines(String input) {
+    int[] ns = NumberScanner.ints(input);
+    checkArgument(ns.length % 6 == 0, "Input has %s numbers, not a multiple of 6", ns.length);
+    List<Machine> machines = new ArrayList<>();
+    for (int i = 0; i < ns.length; i += 6) {
+      machines.add(new Machine(ns[i], ns[i + 1], ns[i + 2], ns[i + 3], ns[i + 4], ns[i + 5]));
+    }
+    return machines;
+  }
+
   // I wasted a huge amount of time trying to understand the intricacies of Linear Diophantine
   // Equations before realizing that that was a complete red herring. We have two simultaneous
   // equations in two unknowns, which means that there is exactly one solution in reals. (Assuming
@@ -9,6 +9,7 @@ import static java.lang.Math.multiplyExact;
 import static java.util.Map.entry;
 import static java.util.stream.Collectors.groupingBy;
 
+import adventlib.NumberScanner;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
@@ -21,8 +22,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.function.Predicate;
-import java.util.regex.Pattern;
-import java.util.stream.IntStream;
 
 /**
  * @author Éamonn McManus
@@ -149,15 +148,9 @@ public class Puzzle14 {
   }
 
   private static ImmutableSetMultimap<Coord, Robot> parseRobots(List<String> lines) {
-    Pattern pattern = Pattern.compile("p=(\\d+),(\\d+) v=(-?\\d+),(-?\\d+)");
     return lines.stream()
-        .map(pattern::matcher)
-        .peek(m -> checkState(m.matches()))
-        .map(
-            m ->
-                IntStream.rangeClosed(1, m.groupCount())
-                    .map(i -> Integer.parseInt(m.group(i)))
-                    .toArray())
+        .map(NumberScanner::ints)
+        .peek(a -> checkState(a.length == 4))
         .collect(
             toImmutableSetMultimap(
                 a -> new Coord(a[0], a[1]), a -> new Robot(new Coord(a[2], a[3]))));
@@ -0,0 +1,112 @@
+package adventlib;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.math.BigInteger;
+
+/**
+ * Raises square matrices to powers by repeated squaring, which takes O(log exponent) matrix
+ * multiplications. This is useful when each step of a puzzle is a linear transformation of some
+ * counts, so that n steps are the n-th power of the matrix for one step.
+ *
+ * @author Éamonn McManus
+ */
+public final class MatrixPower {
+  private MatrixPower() {}
+
+  /** The largest modulus for which products of residues can't overflow a {@code long}. */
+  public static final long MAX_MODULUS = 3_037_000_499L;
+
+  /**
+   * Returns {@code m} to the power {@code exponent}. The entries of the result typically have
+   * O(exponent) digits, which limits how big {@code exponent} can usefully be.
+   */
+  public static BigInteger[][] power(BigInteger[][] m, long exponent) {
+    checkArgument(exponent >= 0, "Negative exponent %s", exponent);
+    int n = m.length;
+    for (BigInteger[] row : m) {
+      checkArgument(row.length == n, "Matrix is not square");
+    }
+    BigInteger[][] result = new BigInteger[n][n];
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        result[i][j] = (i == j) ? BigInteger.ONE : BigInteger.ZERO;
+      }
+    }
+    BigInteger[][] power = m;
+    for (long e = exponent; e > 0; e >>= 1) {
+      if ((e & 1) != 0) {
+        result = multiply(result, power);
+      }
+      if (e > 1) {
+        power = multiply(power, power);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns {@code m} to the power {@code exponent}, with every entry reduced modulo
+   * {@code modulus}. The entries of {@code m} can be any {@code long} values, including negative
+   * ones, and the entries of the result are between 0 and {@code modulus - 1}.
+   */
+  public static long[][] powerMod(long[][] m, long exponent, long modulus) {
+    checkArgument(exponent >= 0, "Negative exponent %s", exponent);
+    checkArgument(modulus > 0 && modulus <= MAX_MODULUS, "Bad modulus %s", modulus);
+    int n = m.length;
+    for (long[] row : m) {
+      checkArgument(row.length == n, "Matrix is not square");
+    }
+    long[][] result = new long[n][n];
+    for (int i = 0; i < n; i++) {
+      result[i][i] = 1 % modulus;
+    }
+    long[][] power = new long[n][n];
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        power[i][j] = Math.floorMod(m[i][j], modulus);
+      }
+    }
+    for (long e = exponent; e > 0; e >>= 1) {
+      if ((e & 1) != 0) {
+        result = multiplyMod(result, power, modulus);
+      }
+      if (e > 1) {
+        power = multiplyMod(power, power, modulus);
+      }
+    }
+    return result;
+  }
+
+  private static BigInteger[][] multiply(BigInteger[][] a, BigInteger[][] b) {
+    int n = a.length;
+    BigInteger[][] c = new BigInteger[n][n];
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        BigInteger sum = BigInteger.ZERO;
+        for (int k = 0; k < n; k++) {
+          if (a[i][k].signum() != 0 && b[k][j].signum() != 0) {
+            sum = sum.add(a[i][k].multiply(b[k][j]));
+          }
+        }
+        c[i][j] = sum;
+      }
+    }
+    return c;
+  }
+
+  private static long[][] multiplyMod(long[][] a, long[][] b, long modulus) {
+    int n = a.length;
+    long[][] c = new long[n][n];
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        long sum = 0;
+        for (int k = 0; k < n; k++) {
+          sum = (sum + a[i][k] * b[k][j]) % modulus;
+        }
+        c[i][j] = sum;
+      }
+    }
+    return c;
+  }
+}
@@ -0,0 +1,151 @@
+package adventlib;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Extracts integers from text without regular expressions or intermediate strings. Anything that
+ * is not part of a number is skipped, so for example scanning {@code "Sensor at x=2, y=-18"} yields
+ * 2 and -18. A {@code -} is a minus sign if it is immediately followed by a digit and not
+ * immediately preceded by one, so {@code "2-4"} yields 2 and 4.
+ *
+ * <p>The text can be a {@link CharSequence} or a range of ASCII bytes.
+ *
+ * @author Éamonn McManus
+ */
+public final class NumberScanner {
+  private final byte[] bytes;
+  private final CharSequence chars;
+  private final int start;
+  private final int end;
+  private int pos;
+
+  public NumberScanner(CharSequence chars) {
+    this.bytes = null;
+    this.chars = chars;
+    this.start = 0;
+    this.pos = 0;
+    this.end = chars.length();
+  }
+
+  public NumberScanner(byte[] bytes) {
+    this(bytes, 0, bytes.length);
+  }
+
+  public NumberScanner(byte[] bytes, int start, int end) {
+    if (start < 0 || start > end || end > bytes.length) {
+      throw new IndexOutOfBoundsException(
+          String.format("Range [%d,%d) out of bounds for length %d", start, end, bytes.length));
+    }
+    this.bytes = bytes;
+    this.chars = null;
+    this.start = start;
+    this.pos = start;
+    this.end = end;
+  }
+
+  /** Returns all the integers in the given text, which is typically a single line. */
+  public static int[] ints(CharSequence line) {
+    return new NumberScanner(line).remainingInts();
+  }
+
+  /** Returns all the integers in the given text, which is typically a single line. */
+  public static long[] longs(CharSequence line) {
+    return new NumberScanner(line).remainingLongs();
+  }
+
+  /** Returns true if there is another number in the text. */
+  public boolean hasNext() {
+    return skipToNumber();
+  }
+
+  public long nextLong() {
+    if (!skipToNumber()) {
+      throw new NoSuchElementException();
+    }
+    int numberStart = pos;
+    boolean negative = at(pos) == '-';
+    if (negative) {
+      pos++;
+    }
+    int digitStart = pos;
+    long value = 0;
+    int c;
+    while (pos < end && (c = at(pos) - '0') >= 0 && c <= 9) {
+      value = value * 10 + c;
+      pos++;
+    }
+    if (pos - digitStart > 18) {
+      // Might have overflowed. This is rare enough that we can afford the slow path, which also
+      // gives us the standard exception if the number really is out of range.
+      return Long.parseLong(text(numberStart, pos));
+    }
+    return negative ? -value : value;
+  }
+
+  public int nextInt() {
+    long value = nextLong();
+    if (value != (int) value) {
+      throw new NumberFormatException("Value out of int range: " + value);
+    }
+    return (int) value;
+  }
+
+  /** Returns all the integers between the current position and the end of the text. */
+  public int[] remainingInts() {
+    int[] result = new int[8];
+    int n = 0;
+    while (hasNext()) {
+      if (n == result.length) {
+        result = Arrays.copyOf(result, n * 2);
+      }
+      result[n++] = nextInt();
+    }
+    return Arrays.copyOf(result, n);
+  }
+
+  /** Returns all the integers between the current position and the end of the text. */
+  public long[] remainingLongs() {
+    long[] result = new long[8];
+    int n = 0;
+    while (hasNext()) {
+      if (n == result.length) {
+        result = Arrays.copyOf(result, n * 2);
+      }
+      result[n++] = nextLong();
+    }
+    return Arrays.copyOf(result, n);
+  }
+
+  private boolean skipToNumber() {
+    for (; pos < end; pos++) {
+      char c = at(pos);
+      if (isDigit(c)) {
+        return true;
+      }
+      if (c == '-'
+          && pos + 1 < end
+          && isDigit(at(pos + 1))
+          && (pos == start || !isDigit(at(pos - 1)))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private char at(int i) {
+    return bytes != null ? (char) (bytes[i] & 0xff) : chars.charAt(i);
+  }
+
+  private String text(int from, int to) {
+    return bytes != null
+        ? new String(bytes, from, to - from, ISO_8859_1)
+        : chars.subSequence(from, to).toString();
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+}
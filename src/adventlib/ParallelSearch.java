@@ -0,0 +1,74 @@
+package adventlib;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Finds the smallest integer in a range that passes a test, testing candidates in parallel. This
+ * is for brute-force searches where each test is expensive and needs some mutable state, such as
+ * a virtual machine that can be reset between runs.
+ *
+ * <p>The range is divided into at least a few chunks per thread, and at most {@value #MAX_CHUNK}
+ * candidates per chunk. Each chunk gets its own state from the supplier, and tests its candidates
+ * in order until one passes. Chunks share the smallest passing candidate found so far, so a chunk
+ * gives up as soon as it reaches that candidate, and chunks that start after it are skipped.
+ * Because the chunks are combined with an ordered {@code findFirst}, the result is the smallest
+ * passing candidate. Candidates beyond the answer may still be tested before it is found, so this
+ * suits ranges where most candidates have to be tested anyway.
+ *
+ * @author Éamonn McManus
+ */
+public final class ParallelSearch {
+  private ParallelSearch() {}
+
+  /** A test of a candidate integer, using mutable state that is not shared between threads. */
+  @FunctionalInterface
+  public interface Test<S> {
+    boolean test(S state, int candidate);
+  }
+
+  private static final long NONE = Long.MIN_VALUE;
+  private static final int MAX_CHUNK = 1024;
+
+  /** Returns the smallest {@code i} in {@code [start, end)} for which the test passes, if any. */
+  public static <S> OptionalInt first(
+      int start, int end, Supplier<? extends S> newState, Test<? super S> test) {
+    checkArgument(start <= end, "Empty range [%s, %s)", start, end);
+    long count = (long) end - start;
+    if (count == 0) {
+      return OptionalInt.empty();
+    }
+    long chunks = Math.min(count, 4L * ForkJoinPool.getCommonPoolParallelism());
+    long chunkSize = Math.min((count + chunks - 1) / chunks, MAX_CHUNK);
+    chunks = (count + chunkSize - 1) / chunkSize;
+    AtomicLong best = new AtomicLong(Long.MAX_VALUE);
+    OptionalLong found =
+        IntStream.range(0, (int) chunks)
+            .parallel()
+            .mapToLong(
+                chunk -> {
+                  long from = start + chunk * chunkSize;
+                  long to = Math.min(end, from + chunkSize);
+                  if (from >= best.get()) {
+                    return NONE;
+                  }
+                  S state = newState.get();
+                  for (long i = from; i < to && i < best.get(); i++) {
+                    if (test.test(state, (int) i)) {
+                      best.accumulateAndGet(i, Math::min);
+                      return i;
+                    }
+                  }
+                  return NONE;
+                })
+            .filter(i -> i != NONE)
+            .findFirst();
+    return found.isPresent() ? OptionalInt.of((int) found.getAsLong()) : OptionalInt.empty();
+  }
+}
@@ -0,0 +1,88 @@
+package advent2019.intcode;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import advent2019.intcode.Intcode.Snapshot;
+import advent2019.intcode.Intcode.State;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * @author Éamonn McManus
+ */
+public class IntcodeTest {
+  @Test
+  public void addAndMultiply() {
+    Intcode vm = new Intcode(Intcode.parse("1,9,10,3,2,3,11,0,99,30,40,50\n"));
+    vm.runToHalt();
+    assertThat(vm.get(0)).isEqualTo(3500);
+    assertThat(vm.get(3)).isEqualTo(70);
+  }
+
+  @Test
+  public void snapshotRestore() {
+    Intcode vm = new Intcode(Intcode.parse("1,0,0,0,99"));
+    Snapshot initial = vm.snapshot();
+    vm.runToHalt();
+    assertThat(vm.get(0)).isEqualTo(2);
+    vm.set(1000, 17);
+    vm.restore(initial);
+    assertThat(vm.get(0)).isEqualTo(1);
+    assertThat(vm.get(1000)).isEqualTo(0);
+    vm.runToHalt();
+    assertThat(vm.get(0)).isEqualTo(2);
+  }
+
+  // This example from 2019 day 5 outputs 999 if the input is below 8, 1000 if it is 8, and 1001 if
+  // it is above 8.
+  private static final String COMPARE_TO_8 =
+      "3,21,1008,21,8,20,1005,20,22,107,8,21,20,1006,20,31,1106,0,36,98,0,0,1002,21,125,20,4,20,"
+          + "1105,1,46,104,999,1105,1,46,1101,1000,1,20,4,20,1105,1,46,98,99";
+
+  @Test
+  public void inputOutput() {
+    Intcode original = new Intcode(Intcode.parse(COMPARE_TO_8));
+    assertThat(original.run()).isEqualTo(State.NEEDS_INPUT);
+    for (int input = 6; input <= 10; input++) {
+      Intcode vm = original.copy();
+      vm.input(input);
+      assertThat(vm.run()).isEqualTo(State.OUTPUT);
+      assertThat(vm.output()).isEqualTo(input < 8 ? 999 : input == 8 ? 1000 : 1001);
+      assertThat(vm.run()).isEqualTo(State.HALTED);
+    }
+  }
+
+  @Test
+  public void relativeModeAndLargeMemory() {
+    // This example from 2019 day 9 outputs a copy of itself.
+    String quine = "109,1,204,-1,1001,100,1,100,1008,100,16,101,1006,101,0,99";
+    Intcode vm = new Intcode(Intcode.parse(quine));
+    List<Long> outputs = new ArrayList<>();
+    State state;
+    while ((state = vm.run()) == State.OUTPUT) {
+      outputs.add(vm.output());
+    }
+    assertThat(state).isEqualTo(State.HALTED);
+    assertThat(outputs).containsExactlyElementsIn(toList(Intcode.parse(quine))).inOrder();
+
+    vm = new Intcode(Intcode.parse("104,1125899906842624,99"));
+    assertThat(vm.run()).isEqualTo(State.OUTPUT);
+    assertThat(vm.output()).isEqualTo(1125899906842624L);
+  }
+
+  @Test
+  public void badInstruction() {
+    Intcode vm = new Intcode(Intcode.parse("42"));
+    assertThrows(IllegalStateException.class, vm::run);
+  }
+
+  private static List<Long> toList(long[] array) {
+    List<Long> list = new ArrayList<>();
+    for (long x : array) {
+      list.add(x);
+    }
+    return list;
+  }
+}
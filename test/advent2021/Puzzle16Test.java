@@ -3,10 +3,13 @@ package advent2021;
 import static com.google.common.truth.Truth.assertThat;
 
 import advent2021.Puzzle16.BitStream;
+import advent2021.Puzzle16.Evaluation;
 import advent2021.Puzzle16.Literal;
 import advent2021.Puzzle16.Operator;
 import advent2021.Puzzle16.Packet;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.math.BigInteger;
 import org.junit.Test;
 
 /**
@@ -65,4 +68,72 @@ public class Puzzle16Test {
     Packet packet = stream.parsePacket();
     assertThat(packet.versionSum()).isEqualTo(31);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void evaluate() {
+    ImmutableMap<String, Long> expectedValues =
+        ImmutableMap.of(
+            "C200B40A82", 3L,
+            "04005AC33890", 54L,
+            "880086C3E88112", 7L,
+            "CE00C43D881120", 9L,
+            "D8005AC2A8F0", 1L,
+            "F600BC2D8F", 0L,
+            "9C005AC2F8F0", 0L,
+            "9C0141080250320F1802104A08", 1L);
+    expectedValues.forEach(
+        (hex, expected) -> {
+          Evaluation evaluation = BitStream.ofHex(hex).evaluate();
+          assertThat(evaluation.value()).isEqualTo(expected);
+          assertThat(evaluation.bigValue()).isNull();
+          assertThat(evaluation.versionSum())
+              .isEqualTo(BitStream.ofHex(hex).parsePacket().versionSum());
+        });
+    assertThat(BitStream.ofHex("A0016C880162017C3686B18A3D4780").evaluate().versionSum())
+        .isEqualTo(31);
+  }
+
+  @Test
+  public void evaluateOverflow() {
+    // product(sum(2^62, 2^62), 3) overflows a long, and then max(that, 5) is still big.
+    BigInteger twoTo62 = BigInteger.ONE.shiftLeft(62);
+    String sum = operator(0, literal(twoTo62), literal(twoTo62));
+    String product = operator(1, sum, literal(BigInteger.valueOf(3)));
+    String max = operator(3, product, literal(BigInteger.valueOf(5)));
+    // min(that, 7) fits in a long again.
+    String min = operator(2, max, literal(BigInteger.valueOf(7)));
+    Evaluation big = BitStream.ofHex(toHex(max)).evaluate();
+    assertThat(big.bigValue()).isEqualTo(twoTo62.shiftLeft(1).multiply(BigInteger.valueOf(3)));
+    assertThat(big.exactValue()).isEqualTo(BitStream.ofHex(toHex(max)).parsePacket().value());
+    Evaluation small = BitStream.ofHex(toHex(min)).evaluate();
+    assertThat(small.bigValue()).isNull();
+    assertThat(small.value()).isEqualTo(7);
+  }
+
+  private static String literal(BigInteger value) {
+    String bits = value.toString(2);
+    bits = "0".repeat((4 - bits.length() % 4) % 4) + bits;
+    StringBuilder packet = new StringBuilder("000100");
+    for (int i = 0; i < bits.length(); i += 4) {
+      packet.append(i + 4 < bits.length() ? '1' : '0').append(bits, i, i + 4);
+    }
+    return packet.toString();
+  }
+
+  private static String operator(int type, String... subpackets) {
+    String type3 = String.format("%3s", Integer.toBinaryString(type)).replace(' ', '0');
+    String count =
+        String.format("%11s", Integer.toBinaryString(subpackets.length)).replace(' ', '0');
+    return "001" + type3 + "1" + count + String.join("", subpackets);
+  }
+
+  private static String toHex(String bits) {
+    bits = bits + "0".repeat((4 - bits.length() % 4) % 4);
+    StringBuilder hex = new StringBuilder();
+    for (int i = 0; i < bits.length(); i += 4) {
+      int nybble = Integer.parseInt(bits.substring(i, i + 4), 2);
+      hex.append(Character.toUpperCase(Character.forDigit(nybble, 16)));
+    }
+    return hex.toString();
+  }
+}
@@ -0,0 +1,104 @@
+package advent2022;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import advent2022.Puzzle3.Sums;
+import com.google.common.primitives.Chars;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * @author Éamonn McManus
+ */
+public class Puzzle3Test {
+  private static final String SAMPLE =
+      """
+      vJrwpWtwJgWrhcsFMMfFFhFp
+      jqHRNqRjqzjGDLGLrsFMfFZSrLrFZsSL
+      PmmdzqPrVvPwwTWBwg
+      wMqvLMZHhHMvwLHjbvcjnnSBnvTQFn
+      ttgJtRGJQctTZtZT
+      CrZsJsPPZsGzwwsLwLmpwMDw
+      """;
+
+  private static final String ITEMS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+  @Test
+  public void sample() throws IOException {
+    for (boolean parallel : new boolean[] {false, true}) {
+      assertThat(Puzzle3.sums(new StringReader(SAMPLE), parallel)).isEqualTo(new Sums(157, 70));
+      assertThat(Puzzle3.sums(new StringReader(SAMPLE.strip()), parallel))
+          .isEqualTo(new Sums(157, 70));
+    }
+  }
+
+  @Test
+  public void manyBlocks() throws IOException {
+    // Enough input for many blocks, with some lines longer than a block, and with CRLF line
+    // endings half the time.
+    Random random = new Random(3);
+    for (int trial = 0; trial < 4; trial++) {
+      String lineEnd = (trial % 2 == 0) ? "\n" : "\r\n";
+      StringBuilder input = new StringBuilder();
+      long compartments = 0;
+      long groups = 0;
+      for (int group = 0; group < 5_000; group++) {
+        // A badge, a different shared item for each line, and disjoint pools of 8 other items
+        // for each half of each line, so the badge and shared items are the only common ones.
+        List<Character> items = new ArrayList<>(Chars.asList(ITEMS.toCharArray()));
+        Collections.shuffle(items, random);
+        char badge = items.get(0);
+        for (int line = 0; line < 3; line++) {
+          char shared = items.get(1 + line);
+          int halfLength = (group % 1000 == 999) ? 100_000 : 2 + random.nextInt(30);
+          boolean badgeOnLeft = random.nextBoolean();
+          List<Character> leftPool = items.subList(4 + 16 * line, 12 + 16 * line);
+          List<Character> rightPool = items.subList(12 + 16 * line, 20 + 16 * line);
+          input.append(half(halfLength, leftPool, shared, badgeOnLeft ? badge : 0, random));
+          input.append(half(halfLength, rightPool, shared, badgeOnLeft ? 0 : badge, random));
+          input.append(lineEnd);
+          compartments += ITEMS.indexOf(shared) + 1;
+        }
+        groups += ITEMS.indexOf(badge) + 1;
+      }
+      Sums expected = new Sums(compartments, groups);
+      String text = input.toString();
+      assertThat(Puzzle3.sums(new StringReader(text), false)).isEqualTo(expected);
+      assertThat(Puzzle3.sums(new StringReader(text), true)).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void badInput() {
+    String incomplete = "vJrwpWtwJgWrhcsFMMfFFhFp\njqHRNqRjqzjGDLGLrsFMfFZSrLrFZsSL\n";
+    assertThrows(
+        IllegalArgumentException.class, () -> Puzzle3.sums(new StringReader(incomplete), false));
+    String oddLength = SAMPLE.replace("ttgJtRGJQctTZtZT", "ttgJtRGJQctTZtZTx");
+    assertThrows(
+        IllegalArgumentException.class, () -> Puzzle3.sums(new StringReader(oddLength), true));
+  }
+
+  /**
+   * Returns a compartment of random items from {@code pool}, with {@code shared} in one position
+   * and {@code badge}, unless it is 0, in another.
+   */
+  private static char[] half(
+      int length, List<Character> pool, char shared, char badge, Random random) {
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = pool.get(random.nextInt(pool.size()));
+    }
+    int sharedIndex = random.nextInt(length);
+    chars[sharedIndex] = shared;
+    if (badge != 0) {
+      chars[(sharedIndex + 1 + random.nextInt(length - 1)) % length] = badge;
+    }
+    return chars;
+  }
+}
@@ -0,0 +1,132 @@
+package advent2022;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import advent2022.Puzzle5.ArrayStacks;
+import advent2022.Puzzle5.Move;
+import advent2022.Puzzle5.RopeStacks;
+import advent2022.Puzzle5.Stacks;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * @author Éamonn McManus
+ */
+public class Puzzle5Test {
+  private static final List<String> SAMPLE_PILES = List.of("ZN", "MCD", "P");
+  private static final List<Move> SAMPLE_MOVES =
+      List.of(
+          Puzzle5.parseMove("move 1 from 2 to 1"),
+          Puzzle5.parseMove("move 3 from 1 to 3"),
+          Puzzle5.parseMove("move 2 from 2 to 1"),
+          Puzzle5.parseMove("move 1 from 1 to 2"));
+
+  @Test
+  public void sample() {
+    for (boolean oneAtATime : new boolean[] {true, false}) {
+      String expected = oneAtATime ? "CMZ" : "MCD";
+      Stacks array = new ArrayStacks(SAMPLE_PILES);
+      Stacks rope = new RopeStacks(SAMPLE_PILES);
+      for (Move move : SAMPLE_MOVES) {
+        array.move(move.n(), move.from() - 1, move.to() - 1, oneAtATime);
+        rope.move(move.n(), move.from() - 1, move.to() - 1, oneAtATime);
+      }
+      assertThat(array.tops()).isEqualTo(expected);
+      assertThat(rope.tops()).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void ropeMatchesArray() {
+    Random random = new Random(23);
+    for (int trial = 0; trial < 100; trial++) {
+      int nPiles = 2 + random.nextInt(8);
+      List<String> piles = new ArrayList<>();
+      int[] sizes = new int[nPiles];
+      for (int i = 0; i < nPiles; i++) {
+        StringBuilder pile = new StringBuilder();
+        int size = 1 + random.nextInt(20);
+        for (int j = 0; j < size; j++) {
+          pile.append((char) ('A' + random.nextInt(26)));
+        }
+        piles.add(pile.toString());
+        sizes[i] = size;
+      }
+      Stacks array = new ArrayStacks(piles);
+      Stacks rope = new RopeStacks(piles);
+      for (int step = 0; step < 200; step++) {
+        int from = random.nextInt(nPiles);
+        int to = random.nextInt(nPiles);
+        // Always leave a crate behind so that tops() can be compared after every move.
+        int n = random.nextInt(sizes[from]);
+        boolean oneAtATime = random.nextBoolean();
+        array.move(n, from, to, oneAtATime);
+        rope.move(n, from, to, oneAtATime);
+        if (from != to) {
+          sizes[from] -= n;
+          sizes[to] += n;
+        }
+        assertThat(rope.tops()).isEqualTo(array.tops());
+      }
+    }
+  }
+
+  @Test
+  public void ropeMatchesArrayForLargeMoves() {
+    // The same pattern as ropeHandlesLargeMoves, but small enough for ArrayStacks, and with
+    // random crates so that the tops show whether the moved crates were reversed correctly.
+    Random random = new Random(5);
+    List<String> piles = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      StringBuilder pile = new StringBuilder();
+      for (int j = 0; j < 500; j++) {
+        pile.append((char) ('A' + random.nextInt(26)));
+      }
+      piles.add(pile.toString());
+    }
+    Stacks array = new ArrayStacks(piles);
+    Stacks rope = new RopeStacks(piles);
+    int[] sizes = {500, 500};
+    for (int i = 0; i < 1000; i++) {
+      boolean oneAtATime = random.nextBoolean();
+      moveAllButBottom(array, sizes.clone(), i % 2, oneAtATime);
+      moveAllButBottom(rope, sizes, i % 2, oneAtATime);
+      assertThat(rope.tops()).isEqualTo(array.tops());
+    }
+  }
+
+  @Test(timeout = 10_000)
+  public void ropeHandlesLargeMoves() {
+    // Two stacks of 100,000 crates, with all but the bottom crate of one stack moved onto the
+    // other, 100,000 times. ArrayStacks would copy 10^10 crates here, while each rope move is
+    // O(log n).
+    int size = 100_000;
+    Stacks rope =
+        new RopeStacks(List.of("A" + "x".repeat(size - 1), "BE" + "y".repeat(size - 2)));
+    int[] sizes = {size, size};
+    for (int i = 0; i < 100_000; i++) {
+      moveAllButBottom(rope, sizes, i % 2, true);
+    }
+    // The last move takes everything above B off stack 1 and reverses it, so E ends up on top.
+    assertThat(rope.tops()).isEqualTo("EB");
+    // Stack 0 should now be A, then size - 1 x's, then size - 2 y's, then E. Taking exactly E and
+    // the y's off the top leaves an x there, and then taking the x's leaves A.
+    rope.move(size - 1, 0, 1, false);
+    assertThat(rope.tops()).isEqualTo("xE");
+    rope.move(size - 1, 0, 1, false);
+    assertThat(rope.tops()).isEqualTo("Ax");
+  }
+
+  /**
+   * Moves all but the bottom crate of stack {@code from} onto the other of two stacks, updating
+   * {@code sizes}.
+   */
+  private static void moveAllButBottom(Stacks stacks, int[] sizes, int from, boolean oneAtATime) {
+    int n = sizes[from] - 1;
+    stacks.move(n, from, 1 - from, oneAtATime);
+    sizes[1 - from] += n;
+    sizes[from] = 1;
+  }
+}
@@ -0,0 +1,78 @@
+package adventlib;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.math.BigInteger;
+import org.junit.Test;
+
+/**
+ * @author Éamonn McManus
+ */
+public class MatrixPowerTest {
+  // The matrix whose n-th power is [[F(n+1), F(n)], [F(n), F(n-1)]].
+  private static final long[][] FIBONACCI = {{1, 1}, {1, 0}};
+
+  @Test
+  public void power() {
+    BigInteger[][] m = {
+      {BigInteger.ONE, BigInteger.ONE},
+      {BigInteger.ONE, BigInteger.ZERO},
+    };
+    assertThat(MatrixPower.power(m, 0)[0])
+        .asList()
+        .containsExactly(BigInteger.ONE, BigInteger.ZERO)
+        .inOrder();
+    BigInteger previous = BigInteger.ZERO;
+    BigInteger current = BigInteger.ONE;
+    for (int n = 1; n <= 200; n++) {
+      assertThat(MatrixPower.power(m, n)[0][1]).isEqualTo(current);
+      BigInteger next = previous.add(current);
+      previous = current;
+      current = next;
+    }
+  }
+
+  @Test
+  public void powerMod() {
+    long modulus = 1_000_000_007L;
+    long previous = 0;
+    long current = 1;
+    for (int n = 1; n <= 200; n++) {
+      assertThat(MatrixPower.powerMod(FIBONACCI, n, modulus)[0][1]).isEqualTo(current);
+      long next = (previous + current) % modulus;
+      previous = current;
+      current = next;
+    }
+    assertThat(MatrixPower.powerMod(FIBONACCI, 0, 1)[0]).asList().containsExactly(0L, 0L);
+  }
+
+  @Test
+  public void powerModAgreesWithPower() {
+    BigInteger[][] big = {
+      {BigInteger.valueOf(3), BigInteger.valueOf(-2), BigInteger.ZERO},
+      {BigInteger.ONE, BigInteger.valueOf(5), BigInteger.valueOf(7)},
+      {BigInteger.valueOf(-4), BigInteger.ZERO, BigInteger.valueOf(2)},
+    };
+    long[][] small = {{3, -2, 0}, {1, 5, 7}, {-4, 0, 2}};
+    BigInteger modulus = BigInteger.valueOf(MatrixPower.MAX_MODULUS);
+    BigInteger[][] expected = MatrixPower.power(big, 100);
+    long[][] actual = MatrixPower.powerMod(small, 100, MatrixPower.MAX_MODULUS);
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 3; j++) {
+        assertThat(actual[i][j]).isEqualTo(expected[i][j].mod(modulus).longValueExact());
+      }
+    }
+  }
+
+  @Test
+  public void badArguments() {
+    assertThrows(IllegalArgumentException.class, () -> MatrixPower.powerMod(FIBONACCI, -1, 7));
+    assertThrows(IllegalArgumentException.class, () -> MatrixPower.powerMod(FIBONACCI, 1, 0));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> MatrixPower.powerMod(FIBONACCI, 1, MatrixPower.MAX_MODULUS + 1));
+    assertThrows(
+        IllegalArgumentException.class, () -> MatrixPower.powerMod(new long[][] {{1, 2}}, 1, 7));
+  }
+}
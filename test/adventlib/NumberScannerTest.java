@@ -0,0 +1,70 @@
+package adventlib;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertThrows;
+
+import java.util.NoSuchElementException;
+import org.junit.Test;
+
+/**
+ * @author Éamonn McManus
+ */
+public class NumberScannerTest {
+  @Test
+  public void ints() {
+    assertThat(NumberScanner.ints("Sensor at x=2, y=-18: closest beacon is at x=-2, y=15"))
+        .asList()
+        .containsExactly(2, -18, -2, 15)
+        .inOrder();
+    assertThat(NumberScanner.ints("0,9 -> 5,9")).asList().containsExactly(0, 9, 5, 9).inOrder();
+    assertThat(NumberScanner.ints("no numbers here")).isEmpty();
+    assertThat(NumberScanner.ints("")).isEmpty();
+  }
+
+  @Test
+  public void hyphens() {
+    assertThat(NumberScanner.ints("2-4,6-8")).asList().containsExactly(2, 4, 6, 8).inOrder();
+    assertThat(NumberScanner.ints("a - b --3")).asList().containsExactly(-3);
+    assertThat(NumberScanner.ints("-")).isEmpty();
+  }
+
+  @Test
+  public void longs() {
+    assertThat(NumberScanner.longs("19, 13, 30 @ -2,  1, -2"))
+        .asList()
+        .containsExactly(19L, 13L, 30L, -2L, 1L, -2L)
+        .inOrder();
+    assertThat(NumberScanner.longs("9223372036854775807 -9223372036854775808"))
+        .asList()
+        .containsExactly(Long.MAX_VALUE, Long.MIN_VALUE)
+        .inOrder();
+    assertThat(NumberScanner.longs("000000000000000000000042")).asList().containsExactly(42L);
+  }
+
+  @Test
+  public void overflow() {
+    assertThrows(NumberFormatException.class, () -> NumberScanner.longs("9223372036854775808"));
+    assertThrows(NumberFormatException.class, () -> NumberScanner.ints("2147483648"));
+  }
+
+  @Test
+  public void bytes() {
+    byte[] bytes = "p=0,4 v=3,-3\np=6,3 v=-1,-3\n".getBytes(US_ASCII);
+    NumberScanner scanner = new NumberScanner(bytes, 13, bytes.length);
+    assertThat(scanner.remainingInts()).asList().containsExactly(6, 3, -1, -3).inOrder();
+    assertThat(new NumberScanner(bytes).nextInt()).isEqualTo(0);
+    // The '-' at offset 0 of the range is a sign even though the byte before it is a digit.
+    assertThat(new NumberScanner("1-2".getBytes(US_ASCII), 1, 3).nextInt()).isEqualTo(-2);
+  }
+
+  @Test
+  public void next() {
+    NumberScanner scanner = new NumberScanner("a1b22c");
+    assertThat(scanner.hasNext()).isTrue();
+    assertThat(scanner.nextInt()).isEqualTo(1);
+    assertThat(scanner.nextLong()).isEqualTo(22L);
+    assertThat(scanner.hasNext()).isFalse();
+    assertThrows(NoSuchElementException.class, scanner::nextInt);
+  }
+}
@@ -0,0 +1,72 @@
+package adventlib;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.util.OptionalInt;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * @author Éamonn McManus
+ */
+public class ParallelSearchTest {
+  @Test
+  public void findsSmallestMatch() {
+    for (int target : new int[] {0, 1, 17, 4_999, 9_999}) {
+      OptionalInt found =
+          ParallelSearch.first(
+              0, 10_000, StringBuilder::new, (sb, i) -> i >= target && i % 7 == target % 7);
+      assertThat(found).isEqualTo(OptionalInt.of(target));
+    }
+  }
+
+  @Test
+  public void noMatch() {
+    assertThat(ParallelSearch.first(-50, 50, Object::new, (unused, i) -> false)).isEmpty();
+    assertThat(ParallelSearch.first(5, 5, Object::new, (unused, i) -> true)).isEmpty();
+  }
+
+  @Test
+  public void rangeEnds() {
+    assertThat(
+            ParallelSearch.first(
+                Integer.MIN_VALUE,
+                Integer.MIN_VALUE + 100_000,
+                Object::new,
+                (unused, i) -> i >= Integer.MIN_VALUE + 1_000))
+        .isEqualTo(OptionalInt.of(Integer.MIN_VALUE + 1_000));
+    assertThat(
+            ParallelSearch.first(
+                Integer.MAX_VALUE - 100_000,
+                Integer.MAX_VALUE,
+                Object::new,
+                (unused, i) -> i == Integer.MAX_VALUE - 1))
+        .isEqualTo(OptionalInt.of(Integer.MAX_VALUE - 1));
+  }
+
+  @Test
+  public void stateIsNotShared() {
+    AtomicInteger failures = new AtomicInteger();
+    ParallelSearch.first(
+        0,
+        100_000,
+        () -> new int[1],
+        (state, i) -> {
+          state[0] = i;
+          Thread.onSpinWait();
+          if (state[0] != i) {
+            failures.incrementAndGet();
+          }
+          return false;
+        });
+    assertThat(failures.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void exceptionsPropagate() {
+    assertThrows(
+        ArithmeticException.class,
+        () -> ParallelSearch.first(0, 100, Object::new, (unused, i) -> 1 / (i - 50) > 5));
+  }
+}